@@ -0,0 +1,125 @@
+package hexameter;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import org.json.simple.JSONArray;
+
+
+/**
+ * FlightRecorderEvents implements the events described in HexameterEvents as JDK Flight Recorder
+ * events. It needs jdk.jfr (JDK 11 or Java 8 from 8u262 on) and is thus kept apart from the
+ * other sources; compile it into the same output as them to get Hexameter's JFR events, e.g.
+ *   javac -cp bin:lib/json-simple-1.1.1.jar -d bin src-jfr/hexameter/*.java
+ * HexameterEvents loads it by name and does without events if it is missing.
+ */
+public class FlightRecorderEvents implements HexameterEvents.Factory {
+	
+	@Category("Hexameter")
+	public static abstract class MessageEvent extends Event implements HexameterEvents.MessageEvent {
+		@Label("Type")
+		public String type;
+		
+		@Label("Space")
+		public String space;
+		
+		@Label("Peer")
+		@Description("Author of a received, recipient of a sent message")
+		public String peer;
+		
+		@Label("Items")
+		@Description("Number of items in the parameter")
+		public int items;
+		
+		@Label("Payload Size")
+		@Description("Size of the message on the wire, if known")
+		@DataAmount
+		public long bytes;
+		
+		public MessageEvent set(String type, String space, String peer, JSONArray parameter, long bytes) {
+			this.type = type;
+			this.space = space;
+			this.peer = peer;
+			this.items = parameter != null ? parameter.size() : 0;
+			this.bytes = bytes;
+			return this;
+		}
+	}
+	
+	@Name("hexameter.Receive")
+	@Label("Hexameter Receive")
+	public static class Receive extends MessageEvent implements HexameterEvents.Receive {
+	}
+	
+	@Name("hexameter.Stage")
+	@Label("Hexameter Stage")
+	public static class Stage extends MessageEvent implements HexameterEvents.Stage {
+		@Label("Stage")
+		public String stage;
+		
+		@Label("Direction")
+		public String direction;
+		
+		public Stage stage(String stage, String direction) {
+			this.stage = stage;
+			this.direction = direction;
+			return this;
+		}
+	}
+	
+	@Name("hexameter.Send")
+	@Label("Hexameter Send")
+	public static class Send extends MessageEvent implements HexameterEvents.Send {
+	}
+	
+	@Name("hexameter.Ask")
+	@Label("Hexameter Ask")
+	public static class Ask extends MessageEvent implements HexameterEvents.Ask {
+		@Label("Answered")
+		public boolean answered;
+		
+		public Ask answered(boolean answered) {
+			this.answered = answered;
+			return this;
+		}
+	}
+	
+	@Name("hexameter.Tick")
+	@Label("Hexameter Tick")
+	public static class Tick extends MessageEvent implements HexameterEvents.Tick {
+		@Label("Body")
+		public String body;
+		
+		@Label("Period")
+		public long period;
+		
+		public Tick tick(String body, long period) {
+			this.body = body;
+			this.period = period;
+			return this;
+		}
+	}
+	
+	public HexameterEvents.Receive receive() {
+		return new Receive();
+	}
+	
+	public HexameterEvents.Stage stage() {
+		return new Stage();
+	}
+	
+	public HexameterEvents.Send send() {
+		return new Send();
+	}
+	
+	public HexameterEvents.Ask ask() {
+		return new Ask();
+	}
+	
+	public HexameterEvents.Tick tick() {
+		return new Tick();
+	}
+}
@@ -0,0 +1,322 @@
+package hexameter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.*;
+
+
+/**
+ * CachingSphere answers repeated qry messages sent via HexameterContext.ask from a local cache
+ * instead of sending them over the network again. Responses are cached per recipient, space and
+ * parameter (compared regardless of key order) for a limited time; if more than capacity
+ * responses are cached, the least recently used ones are evicted. Whenever a put to some space
+ * passes through the sphere (in either direction), all cached responses for that space are
+ * invalidated. Use invalidate() to drop cached responses explicitly, e.g. when a space is known
+ * to change on its own.
+ *
+ * Only responses which arrive for an ask() are cached; the sphere learns about them when the
+ * NetworkingSphere returns them. Thus, put the CachingSphere after the NetworkingSphere in the
+ * spheres array given to HexameterContext.init, e.g. {NetworkingSphere, cachingSphere}. Cache
+ * hits are fed to the NetworkingSphere as an ack from the recipient, so ask() returns them just
+ * like responses from the network. Messages to sharded recipients (cf. DaktylosContext) are
+ * never cached. A CachingSphere can be used with one HexameterContext only.
+ */
+public class CachingSphere implements Sphere {
+	
+	protected static class Entry {
+		protected String recipient;
+		protected String space;
+		protected JSONArray response;
+		protected long expires;
+	}
+	
+	protected int capacity;
+	protected long ttl;
+	protected String[] types = {"qry"};
+	protected LinkedHashMap<String, Entry> entries;
+	// recipient@space -> cache key of the last qry sent there that is still waiting for its response
+	protected HashMap<String, String> awaiting = new HashMap<String, String>();
+	protected MessageProcessor inbound;
+	
+	protected long hits = 0;
+	protected long misses = 0;
+	protected long expired = 0;
+	protected long evicted = 0;
+	protected long invalidated = 0;
+	
+	/**
+	 * @param capacity the maximum number of cached responses
+	 * @param ttl the time after which a cached response is no longer used
+	 */
+	public CachingSphere(int capacity, long ttl, TimeUnit unit) {
+		this.capacity = capacity;
+		this.ttl = unit.toNanos(ttl);
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachingSphere.Entry> eldest) {
+				if ( this.size() > CachingSphere.this.capacity ) {
+					CachingSphere.this.evicted++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	public CachingSphere(int capacity, long ttlMillis) {
+		this(capacity, ttlMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Sets the message types whose responses are cached, "qry" by default. Note that caching
+	 * "get" is only sensible for spaces which do not consume what is read.
+	 */
+	public CachingSphere cache(String... types) {
+		this.types = types;
+		return this;
+	}
+	
+	protected boolean cacheable(String type, String recipient) {
+		if ( recipient.indexOf('*') >= 0 ) {
+			return false;
+		}
+		for ( String cached : this.types ) {
+			if ( cached.equals(type) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns a JSON representation of value whose objects' keys are sorted, so that equal
+	 * parameters result in equal strings.
+	 */
+	public static String canonical(Object value) {
+		StringBuilder builder = new StringBuilder();
+		canonical(value, builder);
+		return builder.toString();
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected static void canonical(Object value, StringBuilder builder) {
+		if ( value instanceof Map ) {
+			builder.append('{');
+			boolean first = true;
+			for ( Map.Entry<Object, Object> entry : new TreeMap<Object, Object>((Map<Object, Object>) value).entrySet() ) {
+				if ( !first ) {
+					builder.append(',');
+				}
+				first = false;
+				builder.append('"').append(JSONValue.escape(String.valueOf(entry.getKey()))).append("\":");
+				canonical(entry.getValue(), builder);
+			}
+			builder.append('}');
+		} else if ( value instanceof List ) {
+			builder.append('[');
+			boolean first = true;
+			for ( Object element : (List<Object>) value ) {
+				if ( !first ) {
+					builder.append(',');
+				}
+				first = false;
+				canonical(element, builder);
+			}
+			builder.append(']');
+		} else {
+			builder.append(JSONValue.toJSONString(value));
+		}
+	}
+	
+	protected static String key(String type, String recipient, String space, JSONArray parameter) {
+		return type + " " + recipient + " " + space + " " + canonical(parameter);
+	}
+	
+	protected synchronized JSONArray lookup(String key) {
+		Entry entry = this.entries.get(key);
+		if ( entry == null ) {
+			return null;
+		}
+		if ( System.nanoTime() - entry.expires > 0 ) {
+			this.entries.remove(key);
+			this.expired++;
+			return null;
+		}
+		return entry.response;
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected synchronized void store(String key, String recipient, String space, JSONArray response) {
+		Entry entry = new Entry();
+		entry.recipient = recipient;
+		entry.space = space;
+		entry.response = new JSONArray();
+		entry.response.addAll(response);
+		entry.expires = System.nanoTime() + this.ttl;
+		this.entries.put(key, entry);
+	}
+	
+	protected synchronized void await(String recipient, String space, String key) {
+		this.misses++;
+		this.awaiting.put(recipient + "@" + space, key);
+	}
+	
+	protected synchronized String awaited(String recipient, String space) {
+		return this.awaiting.remove(recipient + "@" + space);
+	}
+	
+	/**
+	 * Drops all cached responses for the given space, regardless of the recipient.
+	 */
+	public synchronized void invalidate(String space) {
+		this.invalidate(null, space);
+	}
+	
+	/**
+	 * Drops all cached responses of the given recipient (all recipients if null) for the given
+	 * space. Responses for that space still on their way will not be cached either.
+	 */
+	public synchronized void invalidate(String recipient, String space) {
+		for ( Iterator<Entry> iterator = this.entries.values().iterator(); iterator.hasNext(); ) {
+			Entry entry = iterator.next();
+			if ( entry.space.equals(space) && (recipient == null || entry.recipient.equals(recipient)) ) {
+				iterator.remove();
+				this.invalidated++;
+			}
+		}
+		this.awaiting.keySet().removeIf((waiting) -> waiting.endsWith("@" + space) && (recipient == null || waiting.equals(recipient + "@" + space)));
+	}
+	
+	/**
+	 * Drops all cached responses.
+	 */
+	public synchronized void clear() {
+		this.invalidated += this.entries.size();
+		this.entries.clear();
+		this.awaiting.clear();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public MessageProcessor build(MessageProcessor continuation, String direction) {
+		if ( direction.equals("in") ) {
+			this.inbound = continuation;
+			return (type, author, space, parameter, recipient) -> {
+				if ( type.equals("put") && !space.startsWith("net.") ) {
+					this.invalidate(space);
+				}
+				JSONArray response = continuation.process(type, author, space, parameter, recipient);
+				if ( response != null && type.equals("get") && space.equals("net.lust") ) {
+					// this is ask() collecting its response, cf. NetworkingSphere
+					for ( Object parameterItem : parameter ) {
+						JSONObject item = (JSONObject) parameterItem;
+						String wantedAuthor = (String) item.get("author");
+						String wantedSpace = (String) item.get("space");
+						String key = wantedAuthor == null || wantedSpace == null ? null : this.awaited(wantedAuthor, wantedSpace);
+						if ( key != null ) {
+							this.store(key, wantedAuthor, wantedSpace, response);
+						}
+					}
+				}
+				return response;
+			};
+		} else {
+			return (type, recipient, space, parameter, author) -> {
+				if ( type.equals("put") ) {
+					this.invalidate(space);
+				} else if ( this.cacheable(type, recipient) ) {
+					String key = key(type, recipient, space, parameter);
+					JSONArray cached = this.lookup(key);
+					if ( cached != null ) {
+						synchronized ( this ) {
+							this.hits++;
+						}
+						JSONArray response = new JSONArray();
+						response.addAll(cached);
+						this.inbound.process("ack", recipient, space, response, author);
+						return null;
+					}
+					this.await(recipient, space, key);
+				} else {
+					this.awaited(recipient, space);
+				}
+				return continuation.process(type, recipient, space, parameter, author);
+			};
+		}
+	}
+	
+	public synchronized long getHits() {
+		return this.hits;
+	}
+	
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+	
+	public synchronized double getHitRatio() {
+		return this.hits + this.misses == 0 ? 0 : (double) this.hits / (this.hits + this.misses);
+	}
+	
+	/**
+	 * Returns the number of round trips to other components saved, i.e. the number of hits.
+	 */
+	public synchronized long getSavedRoundTrips() {
+		return this.hits;
+	}
+	
+	public synchronized int size() {
+		return this.entries.size();
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return this.hits + " hits, " + this.misses + " misses (hit ratio " + String.format("%.3f", this.getHitRatio()) + "), "
+				+ this.size() + " cached, " + this.expired + " expired, " + this.evicted + " evicted, " + this.invalidated + " invalidated";
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) throws InterruptedException {
+		HexameterContext server = new HexameterContext();
+		HashMap<String, Long> counters = new HashMap<String, Long>();
+		server.init("localhost:55660", () -> (type, author, space, parameter, recipient) -> {
+			if ( type.equals("put") ) {
+				counters.put(space, counters.getOrDefault(space, 0L) + 1);
+			}
+			JSONObject item = new JSONObject();
+			item.put("value", counters.getOrDefault(space, 0L));
+			JSONArray response = new JSONArray();
+			response.add(item);
+			return response;
+		});
+		Thread thread = new Thread(() -> {
+			while ( true ) {
+				server.respond(0);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		CachingSphere cache = new CachingSphere(1000, 10, TimeUnit.SECONDS);
+		HexameterContext hx = new HexameterContext();
+		hx.init("localhost:55661", SpondeiosContext.TrivialSpace, new Sphere[] {SpondeiosContext.NetworkingSphere, cache});
+		JSONObject query = new JSONObject();
+		query.put("name", "counter");
+		List<JSONArray> answers = new ArrayList<JSONArray>();
+		for ( int i = 0; i < 5; i++ ) {
+			answers.add(hx.qry("localhost:55660", "counter", query));
+		}
+		hx.ask("put", "localhost:55660", "counter", query);
+		for ( int i = 0; i < 5; i++ ) {
+			answers.add(hx.qry("localhost:55660", "counter", query));
+		}
+		System.out.println(answers);
+		System.out.println(cache);
+		hx.term();
+	}
+}
@@ -1,7 +1,13 @@
 package hexameter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import org.zeromq.ZMQ;
 import org.json.simple.*;
@@ -16,14 +22,77 @@ public class DaktylosContext {
 	protected MessageProcessor processor;
 	protected ZMQ.Context context;
 	protected ZMQ.Socket respondingSocket;
+	protected ZMQ.Poller poller;
 	protected HashMap<String, ZMQ.Socket> talkingSockets = new HashMap<String, ZMQ.Socket>();
 	protected ArrayList<String> recents = new ArrayList<String>();
+	protected HashMap<String, String[]> shardings = new HashMap<String, String[]>();
+	protected ThreadLocal<MessageWriter> writers = ThreadLocal.withInitial(MessageWriter::new);
+	protected SendMetrics metrics = new SendMetrics(0);
+	protected PayloadCompressor compressor = new PayloadCompressor(-1, Deflater.DEFAULT_COMPRESSION);
+	protected ThreadLocal<MessageWriter> compressionWriters = ThreadLocal.withInitial(MessageWriter::new);
+	protected ThreadLocal<MessageWriter> suffixWriters = ThreadLocal.withInitial(() -> new MessageWriter(256));
+	protected HashMap<String, OutboundQueue> queues = new HashMap<String, OutboundQueue>();
+	protected HashMap<String, OutboundQueue> queueSettings = new HashMap<String, OutboundQueue>();
+	protected OutboundQueue defaultQueueSettings = new OutboundQueue(null, 1000, OutboundQueue.Policy.BLOCK, -1);
+	protected int pending = 0;
+	protected PriorityLanes lanes = null;
+	
+	protected static final byte[] DELIMITER = new byte[0];
+	
+	protected static final Pattern SHARDED = Pattern.compile("^(.*):(\\d+)\\*(\\d+)(/author)?$");
+	
+	/**
+	 * Returns true if the given address denotes a sharded Hexameter component, i.e. is of the form
+	 * "host:port*shards" or "host:port*shards/author". Such a component listens on the ports
+	 * port, port+1, ..., port+shards-1 and expects each message to be sent to the port chosen by
+	 * shard(), keyed by the message's space (or its author if "/author" is given).
+	 */
+	public static boolean isSharded(String address) {
+		return address.indexOf('*') >= 0 && SHARDED.matcher(address).matches();
+	}
+	
+	/**
+	 * Deterministically maps a space name (or author address) to one of the given number of
+	 * shards.
+	 */
+	public static int shard(String key, int shards) {
+		return Math.floorMod(key.hashCode(), shards);
+	}
+	
+	/**
+	 * Resolves the address of a (possibly sharded) recipient to the concrete address the given
+	 * message should be sent to.
+	 */
+	protected String resolve(String recipient, String space) {
+		if ( recipient.indexOf('*') < 0 ) {
+			return recipient;
+		}
+		// sharding[0] is the shard key ("space" or "author"), the rest are the shards' addresses
+		String[] sharding = this.shardings.get(recipient);
+		if ( sharding == null ) {
+			Matcher matcher = SHARDED.matcher(recipient);
+			if ( !matcher.matches() ) {
+				return recipient;
+			}
+			int port = Integer.parseInt(matcher.group(2));
+			int count = Integer.parseInt(matcher.group(3));
+			sharding = new String[count + 1];
+			sharding[0] = matcher.group(4) != null ? "author" : "space";
+			for ( int i = 0; i < count; i++ ) {
+				sharding[i + 1] = matcher.group(1) + ":" + Integer.toString(port + i);
+			}
+			this.shardings.put(recipient, sharding);
+		}
+		String key = sharding[0].equals("author") ? this.me() : space;
+		return sharding[1 + shard(key, sharding.length - 1)];
+	}
 	
 	
 	protected ZMQ.Socket getSocket(String target) {
 		if ( this.socketcache > 0 ) {
-			if ( this.talkingSockets.get("target") != null ) {
-				return this.talkingSockets.get("target");
+			ZMQ.Socket cached = this.talkingSockets.get(target);
+			if ( cached != null ) {
+				return cached;
 			}
 			if ( this.recents.size() == this.socketcache ) {
 				String oldestTarget = this.recents.get(0);
@@ -35,7 +104,9 @@ public class DaktylosContext {
 			}
 		}
 		ZMQ.Socket socket = this.context.socket(ZMQ.DEALER);
-		socket.connect(target);
+		// targets of the form address#lane get sockets of their own, cf. PriorityLanes
+		int lane = target.indexOf('#');
+		socket.connect("tcp://" + (lane < 0 ? target : target.substring(0, lane)));
 		if ( this.socketcache > 0 && this.recents.size() < this.socketcache ) {
 			this.talkingSockets.put(target, socket);
 			this.recents.add(target);
@@ -55,16 +126,20 @@ public class DaktylosContext {
 		return lastSuccess;
 	}
 	
-	protected List<String> multirecv(ZMQ.Socket socket, int recvOptions) {
-		List<String> frames = new ArrayList<String>();
-		frames.add(new String(socket.recv(recvOptions)));
+	protected List<byte[]> multirecv(ZMQ.Socket socket, int recvOptions) {
+		List<byte[]> frames = new ArrayList<byte[]>();
+		byte[] first = socket.recv(recvOptions);
+		if ( first == null ) {
+			return frames;
+		}
+		frames.add(first);
 		while ( socket.hasReceiveMore() ) {
-			frames.add(new String(socket.recv()));
+			frames.add(socket.recv());
 		};
 		return frames;
 	}
 	
-	protected List<String> multirecv(ZMQ.Socket socket) {
+	protected List<byte[]> multirecv(ZMQ.Socket socket) {
 		return this.multirecv(socket, 0);
 	}
 	
@@ -75,6 +150,8 @@ public class DaktylosContext {
 		this.context = ZMQ.context(1);
 		this.respondingSocket = this.context.socket(ZMQ.ROUTER);
 		this.respondingSocket.bind("tcp://*:" + Integer.toString(port));
+		this.poller = this.context.poller(1);
+		this.poller.register(this.respondingSocket, ZMQ.Poller.POLLIN);
 		return this;
 	}
 	
@@ -91,25 +168,297 @@ public class DaktylosContext {
 		return this.me;
 	}
 	
-	@SuppressWarnings("unchecked")
+	/**
+	 * Enables measuring the allocation caused by sending for every sampling-th message (0 to
+	 * disable, which is the default). Cf. SendMetrics.
+	 */
+	public void setMetricsSampling(int sampling) {
+		this.metrics = new SendMetrics(sampling);
+	}
+	
+	public SendMetrics getMetrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * Enables compressing outgoing messages whose JSON envelope is at least threshold bytes long
+	 * (negative to disable, which is the default) with the given Deflate level. Compressed
+	 * messages are always understood when received. Cf. PayloadCompressor.
+	 */
+	public void setCompression(int threshold, int level) {
+		this.compressor = new PayloadCompressor(threshold, level);
+	}
+	
+	public PayloadCompressor getCompressor() {
+		return this.compressor;
+	}
+	
+	/**
+	 * Sets the lanes received messages are sorted into by priority before they are processed
+	 * (null to process them in the order of arrival, which is the default). Cf. PriorityLanes.
+	 */
+	public void setPriorityLanes(PriorityLanes lanes) {
+		this.lanes = lanes;
+	}
+	
+	public PriorityLanes getPriorityLanes() {
+		return this.lanes;
+	}
+	
+	/**
+	 * Returns the key of the socket (and outbound queue) a message to the given concrete address
+	 * is sent with, which differs from the address for lanes with separate sockets.
+	 */
+	protected String lane(String target, String type, String space) {
+		return this.lanes != null ? this.lanes.route(target, type, space) : target;
+	}
+	
 	public boolean message(String type, String recipient, String space, JSONArray parameter) {
-		JSONObject obj = new JSONObject();
-		obj.put("author", this.me());
-		obj.put("recipient", recipient);
-		obj.put("type", type);
-		obj.put("space", space);
-		obj.put("parameter", parameter);
-		String msg = "json\n\n" + obj.toJSONString();
-	    ZMQ.Socket socket = this.getSocket("tcp://" + recipient);
-	    String[] frames = {"", msg};
-	    return this.multisend(socket, frames);
+		HexameterEvents.Send event = null;
+		if ( HexameterEvents.ENABLED ) {
+			event = HexameterEvents.send();
+			event.begin();
+		}
+		boolean sample = this.metrics.sample();
+		long allocated = sample ? this.metrics.allocated() : 0;
+		Tracer.Span span = Tracer.child("send", type, space, this.me(), recipient);
+		MessageWriter writer = this.writers.get().reset();
+		boolean success;
+		try {
+			writer.message(this.me(), recipient, type, space, parameter);
+			if ( span.getContext() != null ) {
+				writer.extend("trace", span.getContext().toJSON());
+			}
+			if ( this.compressor.getThreshold() >= 0 ) {
+				MessageWriter compressed = this.compressionWriters.get();
+				if ( this.compressor.compress(writer, compressed) ) {
+					writer = compressed;
+				}
+			}
+			success = this.send(this.lane(this.resolve(recipient, space), type, space), writer.buffer(), 0, writer.length());
+		} finally {
+			span.close();
+		}
+		if ( sample ) {
+			this.metrics.sampled(allocated);
+		}
+		if ( event != null && event.shouldCommit() ) {
+			event.set(type, space, recipient, parameter, writer.length()).commit();
+		}
+		return success;
+	}
+	
+	/**
+	 * Sends the same message to several recipients. The message is serialized (and, if large
+	 * enough, compressed) once; only the recipient field, which comes last, is written for each
+	 * recipient. Returns true if the message was sent to (or queued for) all recipients.
+	 */
+	public boolean multicast(String type, String[] recipients, String space, JSONArray parameter) {
+		Tracer.Span span = Tracer.child("send", type, space, this.me(), null);
+		boolean success;
+		try {
+			MessageWriter writer = this.writers.get().reset();
+			writer.messagePrefix(this.me(), type, space, parameter, span.getContext() != null ? span.getContext().toJSON() : null);
+			int prefix = writer.length();
+			MessageWriter compressed = null;
+			int compressedPrefix = 0;
+			if ( this.compressor.getThreshold() >= 0 ) {
+				compressed = this.compressionWriters.get();
+				if ( this.compressor.compressPrefix(writer, compressed) ) {
+					compressedPrefix = compressed.length();
+				} else {
+					compressed = null;
+				}
+			}
+			success = true;
+			for ( String recipient : recipients ) {
+				HexameterEvents.Send event = null;
+				if ( HexameterEvents.ENABLED ) {
+					event = HexameterEvents.send();
+					event.begin();
+				}
+				String target = this.lane(this.resolve(recipient, space), type, space);
+				if ( compressed != null ) {
+					MessageWriter suffix = this.suffixWriters.get().reset().recipient(recipient);
+					compressed.truncate(compressedPrefix);
+					this.compressor.complete(compressed, suffix.buffer(), 0, suffix.length());
+					success = this.send(target, compressed.buffer(), 0, compressed.length()) && success;
+				} else {
+					writer.truncate(prefix).recipient(recipient);
+					success = this.send(target, writer.buffer(), 0, writer.length()) && success;
+				}
+				if ( event != null && event.shouldCommit() ) {
+					event.set(type, space, recipient, parameter, compressed != null ? compressed.length() : writer.length()).commit();
+				}
+			}
+		} finally {
+			span.close();
+		}
+		return success;
+	}
+	
+	/**
+	 * Compiles a message sent from this component into a MessageTemplate, cf. there.
+	 */
+	public MessageTemplate compile(String type, String recipient, String space, JSONArray parameter) {
+		return MessageTemplate.compile(this.me(), this.resolve(recipient, space), type, recipient, space, parameter);
+	}
+	
+	/**
+	 * Sends a compiled message. If the template contains slots, they are filled with the given
+	 * values in a per-thread buffer; otherwise, the cached bytes are sent as they are.
+	 */
+	public boolean message(MessageTemplate template, long... values) {
+		String target = this.lane(template.getTarget(), template.getType(), template.getSpace());
+		if ( template.getSlotCount() == 0 ) {
+			return this.send(target, template.bytes(), 0, template.bytes().length);
+		}
+		MessageWriter writer = this.writers.get();
+		template.fill(writer, values);
+		return this.send(target, writer.buffer(), 0, writer.length());
+	}
+	
+	/**
+	 * Sets capacity and policy of the outbound queues for all recipients without specific
+	 * settings. Cf. OutboundQueue; the default is a capacity of 1000 and the BLOCK policy without
+	 * timeout, which (like plain ZeroMQ) waits for slow recipients.
+	 * 
+	 * @param timeout the maximum time in ms to wait with the BLOCK policy, negative for no limit
+	 */
+	public void setOutboundQueues(int capacity, OutboundQueue.Policy policy, long timeout) {
+		this.defaultQueueSettings = new OutboundQueue(null, capacity, policy, timeout);
+		this.queues.entrySet().removeIf((entry) -> entry.getValue().isEmpty() && !this.queueSettings.containsKey(entry.getKey()));
+	}
+	
+	/**
+	 * Sets capacity and policy of the outbound queue for one recipient.
+	 */
+	public void setOutboundQueue(String recipient, int capacity, OutboundQueue.Policy policy, long timeout) {
+		String target = this.resolve(recipient, "");
+		this.queueSettings.put(target, new OutboundQueue(target, capacity, policy, timeout));
+		OutboundQueue queue = this.queues.get(target);
+		if ( queue == null || queue.isEmpty() ) {
+			this.queues.remove(target);
+		}
+	}
+	
+	/**
+	 * Returns the outbound queues of all recipients messages have been sent to, keyed by their
+	 * (concrete) addresses, for inspecting their depth and drops.
+	 */
+	public HashMap<String, OutboundQueue> getOutboundQueues() {
+		return this.queues;
+	}
+	
+	/**
+	 * Returns how full the outbound queue for the given recipient is, from 0 to 1.
+	 */
+	public double getPressure(String recipient, String space) {
+		OutboundQueue queue = this.queues.get(this.resolve(recipient, space));
+		return queue != null ? queue.getPressure() : 0;
+	}
+	
+	protected OutboundQueue getQueue(String target) {
+		OutboundQueue queue = this.queues.get(target);
+		if ( queue == null ) {
+			OutboundQueue settings = this.queueSettings.getOrDefault(target, this.defaultQueueSettings);
+			queue = new OutboundQueue(target, settings.getCapacity(), settings.getPolicy(), settings.getTimeout());
+			this.queues.put(target, queue);
+		}
+		return queue;
+	}
+	
+	protected boolean trySend(ZMQ.Socket socket, byte[] message, int offset, int length) {
+		if ( !socket.send(DELIMITER, ZMQ.SNDMORE | ZMQ.DONTWAIT) ) {
+			return false;
+		}
+		socket.send(message, offset, length, 0);
+		this.metrics.sent(length);
+		return true;
+	}
+	
+	/**
+	 * Hands as many queued messages for the given recipient to its socket as it takes.
+	 */
+	protected void flush(OutboundQueue queue) {
+		if ( queue.isEmpty() ) {
+			return;
+		}
+		ZMQ.Socket socket = this.getSocket(queue.getTarget());
+		byte[] message;
+		while ( (message = queue.peek()) != null && this.trySend(socket, message, 0, message.length) ) {
+			queue.remove();
+			if ( queue.isEmpty() ) {
+				this.pending--;
+			}
+		}
+	}
+	
+	/**
+	 * Retries sending the queued messages for all recipients.
+	 */
+	public void flush() {
+		if ( this.pending == 0 ) {
+			return;
+		}
+		for ( OutboundQueue queue : this.queues.values() ) {
+			this.flush(queue);
+		}
+	}
+	
+	/**
+	 * Sends an already serialized message (including its header) to the given address. When the
+	 * recipient's socket does not take the message right away, it is put in the recipient's
+	 * OutboundQueue and handled according to its policy. Returns false if the message has been
+	 * dropped.
+	 */
+	protected boolean send(String target, byte[] message, int offset, int length) {
+		OutboundQueue queue = this.getQueue(target);
+		this.flush(queue);
+		if ( queue.isEmpty() && this.trySend(this.getSocket(target), message, offset, length) ) {
+			return true;
+		}
+		if ( queue.isFull() ) {
+			switch ( queue.getPolicy() ) {
+				case FAIL_FAST:
+					queue.drop();
+					throw new OutboundQueue.Overflow(target, queue.getCapacity());
+				case BLOCK:
+					long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queue.getTimeout());
+					while ( queue.isFull() && (queue.getTimeout() < 0 || System.nanoTime() < deadline) ) {
+						LockSupport.parkNanos(100000);
+						this.flush(queue);
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		boolean wasEmpty = queue.isEmpty();
+		if ( !queue.offer(message, offset, length) ) {
+			queue.drop();
+			return false;
+		}
+		if ( wasEmpty ) {
+			this.pending++;
+		}
+		this.flush(queue);
+		return true;
 	}
 	
 	public boolean respond(int tries) {
+		this.flush();
+		if ( this.lanes != null ) {
+			return this.handle(this.prioritized(tries));
+		}
+		return this.handle(this.receive(tries));
+	}
+	
+	protected byte[] receive(int tries) {
 		@SuppressWarnings("unused")
-		String src, del, msg = null;
+		byte[] src, del, msg = null;
 		if ( tries == 0 ) {
-			List<String> frames = this.multirecv(this.respondingSocket);
+			List<byte[]> frames = this.multirecv(this.respondingSocket);
 			if ( frames.size() >= 3 ) {
 				src = frames.get(0);
 				del = frames.get(1);
@@ -117,7 +466,7 @@ public class DaktylosContext {
 			}
 		} else {
 			for ( int i = 0; msg == null && i < tries ; i++ ) {
-				List<String> frames = this.multirecv(this.respondingSocket, ZMQ.NOBLOCK);
+				List<byte[]> frames = this.multirecv(this.respondingSocket, ZMQ.NOBLOCK);
 				if ( frames.size() >= 3 ) {
 					src = frames.get(0);
 					del = frames.get(1);
@@ -125,25 +474,155 @@ public class DaktylosContext {
 				}
 			}
 		}
+		return msg;
+	}
+	
+	/**
+	 * Takes all messages which have arrived from the socket and puts them in their lanes (as long
+	 * as the lanes have capacity left).
+	 */
+	protected void pull() {
+		while ( !this.lanes.isFull() ) {
+			List<byte[]> frames = this.multirecv(this.respondingSocket, ZMQ.NOBLOCK);
+			if ( frames.isEmpty() ) {
+				return;
+			}
+			if ( frames.size() >= 3 ) {
+				this.lanes.offer(frames.get(2));
+			}
+		}
+	}
+	
+	/**
+	 * Like receive(), but returns the message to process next according to the priority lanes,
+	 * only waiting for new messages when all lanes are empty.
+	 */
+	protected byte[] prioritized(int tries) {
+		this.pull();
+		if ( this.lanes.isEmpty() ) {
+			byte[] msg = this.receive(tries);
+			if ( msg == null ) {
+				return null;
+			}
+			this.lanes.offer(msg);
+			this.pull();
+		}
+		return this.lanes.poll();
+	}
+	
+	/**
+	 * Like respond(0), but waits for the next message for no longer than the given timeout (in
+	 * ms). Returns true if a message has been received.
+	 */
+	public boolean respondWithin(long timeout) {
+		this.flush();
+		if ( this.lanes != null ) {
+			this.pull();
+			if ( !this.lanes.isEmpty() ) {
+				return this.handle(this.lanes.poll());
+			}
+		}
+		if ( this.poller.poll(timeout) <= 0 || !this.poller.pollin(0) ) {
+			return false;
+		}
+		if ( this.lanes != null ) {
+			this.pull();
+			return this.handle(this.lanes.poll());
+		}
+		List<byte[]> frames = this.multirecv(this.respondingSocket, ZMQ.NOBLOCK);
+		return this.handle(frames.size() >= 3 ? frames.get(2) : null);
+	}
+	
+	/**
+	 * Like respondWithin(), but only processes messages in the acks lane (cf. PriorityLanes.acks)
+	 * and leaves all others in their lanes. Used by HexameterContext while its streams are
+	 * saturated, so that asks are still answered. Returns false right away if there are no
+	 * priority lanes with an acks lane.
+	 */
+	public boolean respondAcks(long timeout) {
+		if ( this.lanes == null || this.lanes.acks == null ) {
+			return false;
+		}
+		this.flush();
+		this.pull();
+		if ( this.lanes.acks.size == 0 ) {
+			if ( this.lanes.isFull() ) {
+				// the socket cannot be emptied, so polling it would return right away
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(timeout));
+				return false;
+			}
+			if ( this.poller.poll(timeout) <= 0 || !this.poller.pollin(0) ) {
+				return false;
+			}
+			this.pull();
+		}
+		byte[] msg = this.lanes.pollAcks();
+		return msg != null && this.handle(msg);
+	}
+	
+	/**
+	 * Returns the JSON envelope of a received message, decompressing it if necessary.
+	 */
+	protected String decode(byte[] msg) {
+		if ( PayloadCompressor.isCompressed(msg, 0, msg.length) ) {
+			return this.compressor.decompress(msg, 0, msg.length);
+		}
+		int offset = 0;
+		while ( offset < msg.length && msg[offset] != '{' ) {
+			offset++;
+		}
+		return new String(msg, offset, msg.length - offset, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Processes one received message and sends the response, if any.
+	 */
+	protected boolean handle(byte[] msg) {
 		if ( msg != null ) {
-			Object object = JSONValue.parse(msg.replaceAll("^json\n\n", ""));
+			HexameterEvents.Receive event = null;
+			if ( HexameterEvents.ENABLED ) {
+				event = HexameterEvents.receive();
+				event.begin();
+			}
+			Object object = JSONValue.parse(this.decode(msg));
 			JSONObject message = (JSONObject) object;
-			JSONArray response = this.processor.process(
+			if ( event != null && event.shouldCommit() ) {
+				event.set(
+						(String) message.get("type"),
+						(String) message.get("space"),
+						(String) message.get("author"),
+						(JSONArray) message.get("parameter"),
+						msg.length
+				).commit();
+			}
+			Tracer.Span span = Tracer.resume(
+					Tracer.Context.parse(message.get("trace")),
+					"process",
 					(String) message.get("type"),
-					(String) message.get("author"),
 					(String) message.get("space"),
-					(JSONArray) message.get("parameter"),
-					(String) message.get("recipient")
+					this.me(),
+					(String) message.get("author")
 			);
-			if ( response != null ) {
-				return this.message(
-						"ack",
+			try {
+				JSONArray response = this.processor.process(
+						(String) message.get("type"),
 						(String) message.get("author"),
 						(String) message.get("space"),
-						response
-					);
+						(JSONArray) message.get("parameter"),
+						(String) message.get("recipient")
+				);
+				if ( response != null ) {
+					return this.message(
+							"ack",
+							(String) message.get("author"),
+							(String) message.get("space"),
+							response
+						);
+				}
+				return true;
+			} finally {
+				span.close();
 			}
-			return true;
 		} else {
 			return false;
 		}
@@ -152,6 +631,36 @@ public class DaktylosContext {
 	public boolean respond() {
 		return this.respond(this.recvtries);
 	}
+	
+	/**
+	 * Closes the pooled socket to the given (concrete) address and discards all messages queued
+	 * for it (including those of separate priority lanes), e.g. because the recipient is known to
+	 * be gone.
+	 */
+	public void forget(String target) {
+		if ( target.indexOf('#') < 0 ) {
+			for ( String lane : new ArrayList<String>(this.queues.keySet()) ) {
+				if ( lane.startsWith(target + "#") ) {
+					this.forget(lane);
+				}
+			}
+			for ( String lane : new ArrayList<String>(this.talkingSockets.keySet()) ) {
+				if ( lane.startsWith(target + "#") ) {
+					this.forget(lane);
+				}
+			}
+		}
+		ZMQ.Socket socket = this.talkingSockets.remove(target);
+		if ( socket != null ) {
+			socket.setLinger(0);
+			socket.close();
+		}
+		this.recents.remove(target);
+		OutboundQueue queue = this.queues.remove(target);
+		if ( queue != null && !queue.isEmpty() ) {
+			this.pending--;
+		}
+	}
 
 	@SuppressWarnings("unchecked")
 	public static void main(String[] args) {
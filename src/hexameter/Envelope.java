@@ -0,0 +1,209 @@
+package hexameter;
+import java.nio.charset.StandardCharsets;
+
+import org.json.simple.JSONValue;
+
+
+/**
+ * Envelope reads the header fields (type, author, space and recipient) of a raw, uncompressed
+ * Hexameter message without parsing its parameter: The envelope's fields are skipped over
+ * byte by byte (minding strings and nesting) and only the header values are decoded. Scanning
+ * stops as soon as all header fields have been found, which for messages written by
+ * MessageWriter is before the parameter. One Envelope can be reused for any number of messages.
+ */
+public class Envelope {
+	
+	protected static final byte[] TYPE = "\"type\"".getBytes(StandardCharsets.UTF_8);
+	protected static final byte[] AUTHOR = "\"author\"".getBytes(StandardCharsets.UTF_8);
+	protected static final byte[] SPACE = "\"space\"".getBytes(StandardCharsets.UTF_8);
+	protected static final byte[] RECIPIENT = "\"recipient\"".getBytes(StandardCharsets.UTF_8);
+	
+	protected String type;
+	protected String author;
+	protected String space;
+	protected String recipient;
+	// positions of the author value (including its quotes) within the scanned message
+	protected int authorStart;
+	protected int authorEnd;
+	
+	/**
+	 * Reads the header fields of the given message. Returns false if the message is malformed or
+	 * lacks type, author or space.
+	 */
+	public boolean scan(byte[] msg, int offset, int length) {
+		this.type = null;
+		this.author = null;
+		this.space = null;
+		this.recipient = null;
+		this.authorStart = -1;
+		this.authorEnd = -1;
+		int end = offset + length;
+		int i = offset;
+		while ( i < end && msg[i] != '{' ) {
+			i++;
+		}
+		i++;
+		while ( i < end ) {
+			i = skipWhitespace(msg, i, end);
+			if ( i >= end || msg[i] == '}' ) {
+				break;
+			}
+			if ( msg[i] == ',' ) {
+				i++;
+				continue;
+			}
+			if ( msg[i] != '"' ) {
+				return false;
+			}
+			int keyStart = i;
+			i = skipString(msg, i, end);
+			if ( i < 0 ) {
+				return false;
+			}
+			int keyEnd = i;
+			i = skipWhitespace(msg, i, end);
+			if ( i >= end || msg[i] != ':' ) {
+				return false;
+			}
+			i = skipWhitespace(msg, i + 1, end);
+			int valueStart = i;
+			i = skipValue(msg, i, end);
+			if ( i < 0 ) {
+				return false;
+			}
+			if ( equals(msg, keyStart, keyEnd, TYPE) ) {
+				this.type = string(msg, valueStart, i);
+			} else if ( equals(msg, keyStart, keyEnd, AUTHOR) ) {
+				this.author = string(msg, valueStart, i);
+				this.authorStart = valueStart;
+				this.authorEnd = i;
+			} else if ( equals(msg, keyStart, keyEnd, SPACE) ) {
+				this.space = string(msg, valueStart, i);
+			} else if ( equals(msg, keyStart, keyEnd, RECIPIENT) ) {
+				this.recipient = string(msg, valueStart, i);
+			}
+			if ( this.type != null && this.author != null && this.space != null && this.recipient != null ) {
+				break;
+			}
+		}
+		return this.type != null && this.author != null && this.space != null;
+	}
+	
+	protected static int skipWhitespace(byte[] msg, int i, int end) {
+		while ( i < end && (msg[i] == ' ' || msg[i] == '\n' || msg[i] == '\r' || msg[i] == '\t') ) {
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * Returns the position after the string starting at i, -1 if it does not end.
+	 */
+	protected static int skipString(byte[] msg, int i, int end) {
+		for ( int j = i + 1; j < end; j++ ) {
+			if ( msg[j] == '\\' ) {
+				j++;
+			} else if ( msg[j] == '"' ) {
+				return j + 1;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the position after the JSON value starting at i, -1 if it does not end.
+	 */
+	protected static int skipValue(byte[] msg, int i, int end) {
+		if ( i >= end ) {
+			return -1;
+		}
+		if ( msg[i] == '"' ) {
+			return skipString(msg, i, end);
+		}
+		if ( msg[i] == '{' || msg[i] == '[' ) {
+			int depth = 0;
+			while ( i < end ) {
+				byte b = msg[i];
+				if ( b == '"' ) {
+					i = skipString(msg, i, end);
+					if ( i < 0 ) {
+						return -1;
+					}
+					continue;
+				}
+				if ( b == '{' || b == '[' ) {
+					depth++;
+				} else if ( b == '}' || b == ']' ) {
+					depth--;
+					if ( depth == 0 ) {
+						return i + 1;
+					}
+				}
+				i++;
+			}
+			return -1;
+		}
+		while ( i < end && msg[i] != ',' && msg[i] != '}' && msg[i] != ']' && msg[i] != ' ' && msg[i] != '\n' ) {
+			i++;
+		}
+		return i;
+	}
+	
+	protected static boolean equals(byte[] msg, int start, int end, byte[] key) {
+		if ( end - start != key.length ) {
+			return false;
+		}
+		for ( int i = 0; i < key.length; i++ ) {
+			if ( msg[start + i] != key[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Decodes the string value between start and end, null if it is not a string.
+	 */
+	protected static String string(byte[] msg, int start, int end) {
+		if ( end - start < 2 || msg[start] != '"' ) {
+			return null;
+		}
+		for ( int i = start + 1; i < end - 1; i++ ) {
+			if ( msg[i] == '\\' ) {
+				Object value = JSONValue.parse(new String(msg, start, end - start, StandardCharsets.UTF_8));
+				return value instanceof String ? (String) value : null;
+			}
+		}
+		return new String(msg, start + 1, end - start - 2, StandardCharsets.UTF_8);
+	}
+	
+	public String getType() {
+		return this.type;
+	}
+	
+	public String getAuthor() {
+		return this.author;
+	}
+	
+	public String getSpace() {
+		return this.space;
+	}
+	
+	public String getRecipient() {
+		return this.recipient;
+	}
+	
+	/**
+	 * Returns the position of the author value (starting with its opening quote).
+	 */
+	public int getAuthorStart() {
+		return this.authorStart;
+	}
+	
+	/**
+	 * Returns the position after the author value (after its closing quote).
+	 */
+	public int getAuthorEnd() {
+		return this.authorEnd;
+	}
+}
@@ -0,0 +1,46 @@
+package hexameter;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+
+/**
+ * A Fallback decides which motor commands a HadesAgent sends for a body whose reaction missed
+ * its deadline (cf. HadesAgent.setDeadline). It is given the motor commands sent for the body in
+ * the last period it reacted to in time (or null) and returns the motor commands to send instead
+ * (or null to send none).
+ */
+public interface Fallback {
+	JSONArray fallback(String body, long period, JSONArray lastReactions);
+	
+	/**
+	 * Repeats the motor commands of the last period the body reacted to in time.
+	 */
+	public static final Fallback REPEAT_LAST = (body, period, lastReactions) -> {
+		return lastReactions;
+	};
+	
+	/**
+	 * Sends no motor commands, i.e. only the tock.
+	 */
+	public static final Fallback NOTHING = (body, period, lastReactions) -> {
+		return null;
+	};
+	
+	/**
+	 * Sends the given motor command, e.g. motor("setvelocity", {left: 0, right: 0}) to stop.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Fallback motor(String type, JSONObject motorControl) {
+		return (body, period, lastReactions) -> {
+			JSONArray reactions = new JSONArray();
+			JSONObject motorItem = new JSONObject();
+			motorItem.put("body", body);
+			motorItem.put("type", type);
+			if ( motorControl != null ) {
+				motorItem.put("control", motorControl);
+			}
+			reactions.add(motorItem);
+			return reactions;
+		};
+	}
+}
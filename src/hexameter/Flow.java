@@ -0,0 +1,47 @@
+package hexameter;
+
+
+/**
+ * Flow mirrors the interfaces of java.util.concurrent.Flow (Java 9), which Hexameter cannot use
+ * as it still runs on Java 8. The interfaces and their contracts are the same as in the JDK (and
+ * the Reactive Streams specification), so a Publisher of this class can be adapted to a JDK or
+ * Reactive Streams one by forwarding each method. Cf. MessageStream.
+ */
+public class Flow {
+	
+	/**
+	 * A producer of items which are received by Subscribers, as far as they requested them.
+	 */
+	@FunctionalInterface
+	public static interface Publisher<T> {
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+	
+	/**
+	 * A receiver of items. Its methods are called one after the other (never concurrently):
+	 * onSubscribe once, then onNext for at most as many items as requested via the Subscription,
+	 * then onComplete or onError at most once.
+	 */
+	public static interface Subscriber<T> {
+		void onSubscribe(Subscription subscription);
+		
+		void onNext(T item);
+		
+		void onError(Throwable throwable);
+		
+		void onComplete();
+	}
+	
+	/**
+	 * Links a Publisher and a Subscriber. The Subscriber requests n more items via request(n)
+	 * (n must be positive) and stops receiving items via cancel().
+	 */
+	public static interface Subscription {
+		void request(long n);
+		
+		void cancel();
+	}
+	
+	public static interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+	}
+}
@@ -1,4 +1,15 @@
 package hexameter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -28,6 +39,16 @@ public abstract class HadesAgent {
 	protected HexameterContext hx;
 	protected boolean registered = false;
 	protected Clock clock;
+	protected HadesAgentHost host = null;
+	protected long deadline = 0;
+	protected Fallback fallback = Fallback.REPEAT_LAST;
+	protected boolean cancelLate = true;
+	protected ExecutorService reactors = null;
+	protected Object lock = new Object();
+	// written by the reacting threads as well as the agent's thread
+	protected Map<String, JSONArray> lastReactions = new ConcurrentHashMap<String, JSONArray>();
+	protected Map<String, Long> misses = new ConcurrentHashMap<String, Long>();
+	protected HashMap<String, MessageTemplate> tocks = new HashMap<String, MessageTemplate>();
 	
 	protected static class Clock {
 		protected long time = 0;
@@ -44,6 +65,17 @@ public abstract class HadesAgent {
 		}
 	}
 	
+	/**
+	 * Thrown by ReactionContext.sensor when the reaction it belongs to has already missed its
+	 * deadline, which also aborts the rest of the late reaction.
+	 */
+	public static class DeadlineMissed extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		public DeadlineMissed(String body, long period) {
+			super("reaction of " + body + " missed its deadline in period " + period);
+		}
+	}
+	
 	/**
 	 * A ReactionContext contains all information needed for an agent to compute the action for
 	 * the next time slice. It is made available as a parameter to the HadesAgent.react method.
@@ -59,6 +91,7 @@ public abstract class HadesAgent {
 		protected long period;
 		protected String body;
 		protected JSONArray reactions;
+		protected volatile boolean expired = false;
 		
 		public ReactionContext(HadesAgent agent, long period, String body) {
 			this.agent = agent;
@@ -92,6 +125,14 @@ public abstract class HadesAgent {
 			return body;
 		}
 		
+		/**
+		 * Returns true if this reaction has missed its deadline. Long-running reactions may check
+		 * this to give up early; their motor commands will be discarded anyway.
+		 */
+		public boolean isExpired() {
+			return expired;
+		}
+		
 		/**
 		 * Calls a sensor defined by the HADES world config file and returns its measurements. Note
 		 * that it returns a JSONArray or JSONObject according to the specification in the HADES
@@ -104,22 +145,90 @@ public abstract class HadesAgent {
 		 * @return either a JSONArray or a HSONObject containing the measurements from the sensor
 		 *         according to sensor specification in HADES world config file
 		 */
-		@SuppressWarnings("unchecked")
 		public Object sensor(String type, JSONObject sensorControl) {
+			return this.measure(type, sensorControl, null);
+		}
+		
+		public Object sensor(String type) {
+			return this.sensor(type, null);
+		}
+		
+		/**
+		 * Calls a sensor that measures a list of numbers (e.g. the 24 readings of a proximity
+		 * sensor) and returns them as an array of doubles. The sensor is asked for a packed
+		 * encoding (cf. PackedCodec), which saves decoding every reading into boxed objects if
+		 * the HADES side supports it; otherwise, the number found under "value" in every reading
+		 * (or the reading itself, if it is a number) is used.
+		 */
+		public double[] sensorDoubles(String type, JSONObject sensorControl) {
+			return PackedCodec.doubles(this.measure(type, sensorControl, PackedCodec.DOUBLES));
+		}
+		
+		public double[] sensorDoubles(String type) {
+			return this.sensorDoubles(type, null);
+		}
+		
+		/**
+		 * Asks the given sensor of this body (in the given encoding, null for the default) and
+		 * returns the value measured.
+		 */
+		@SuppressWarnings("unchecked")
+		private Object measure(String type, JSONObject sensorControl, String encoding) {
 			JSONArray sensorParameter = new JSONArray();
 			JSONObject sensorItem = new JSONObject();
 			sensorItem.put("body", this.body);
 			sensorItem.put("type", type);
+			if ( encoding != null ) {
+				sensorItem.put("encoding", encoding);
+			}
 			if ( sensorControl != null ) {
 				sensorItem.put("control", sensorControl);
-			};
+			}
 			sensorParameter.add(sensorItem);
-			JSONArray sensorResponse = this.hx.ask("get", this.agent.getHades(), "sensors", sensorParameter);
-			return ((JSONObject)sensorResponse.get(0)).get("value");
+			JSONArray sensorResponse = this.askSensors(sensorParameter);
+			return ((JSONObject) sensorResponse.get(0)).get("value");
 		}
 		
-		public Object sensor(String type) {
-			return this.sensor(type, null);
+		/**
+		 * Asks HADES' sensors space. With a deadline set, the agent's lock is not held while
+		 * waiting for the response but only for sending and for each single attempt to receive
+		 * it, so that the agent can send the fallback motor commands and the tock right when the
+		 * deadline is missed; the waiting reaction then fails with DeadlineMissed.
+		 */
+		@SuppressWarnings("unchecked")
+		protected JSONArray askSensors(JSONArray sensorParameter) {
+			String hades = this.agent.getHades();
+			if ( this.agent.deadline <= 0 ) {
+				return this.hx.ask("get", hades, "sensors", sensorParameter);
+			}
+			JSONObject lustItem = new JSONObject();
+			lustItem.put("author", this.hx.getMedium().resolve(hades, "sensors"));
+			lustItem.put("space", "sensors");
+			JSONArray lustParameter = new JSONArray();
+			lustParameter.add(lustItem);
+			synchronized ( this.agent.lock ) {
+				if ( this.expired ) {
+					throw new DeadlineMissed(this.body, this.period);
+				}
+				this.hx.process("put", this.hx.me(), "net.lust", lustParameter, this.hx.me());
+				this.hx.tell("get", hades, "sensors", sensorParameter);
+			}
+			while ( true ) {
+				boolean received;
+				synchronized ( this.agent.lock ) {
+					if ( this.expired ) {
+						throw new DeadlineMissed(this.body, this.period);
+					}
+					JSONArray sensorResponse = this.hx.process("get", this.hx.me(), "net.lust", lustParameter);
+					if ( sensorResponse != null ) {
+						return sensorResponse;
+					}
+					received = this.hx.respond(1);
+				}
+				if ( !received ) {
+					LockSupport.parkNanos(50000);
+				}
+			}
 		}
 		
 		/**
@@ -149,6 +258,15 @@ public abstract class HadesAgent {
 		public void motor(String type) {
 			this.motor(type, null);
 		}
+		
+		/**
+		 * Saves a motor command whose control is a list of numbers, which is sent packed (cf.
+		 * PackedCodec) instead of as a JSON array. Only use this with motors whose HADES
+		 * implementation understands packed controls.
+		 */
+		public void motorDoubles(String type, double... motorControl) {
+			this.motor(type, PackedCodec.pack(motorControl));
+		}
 	}
 	
 
@@ -164,16 +282,18 @@ public abstract class HadesAgent {
 	 */
 	public HadesAgent(String hadesAddress, String name, String[] managedBodies) {
 		this(hadesAddress, new HexameterContext(), managedBodies); 
-		this.hx.init(name, () -> {
-			return (type, author, space, parameter, recipient) -> {
-				JSONArray response = this.processMessage(type, author, space, parameter, recipient);
-				if ( response != null ) {
-					return response;
+		this.hx.init(name, new SpaceRouter()
+			.on("hades.ticks", (type, author, space, parameter, recipient) -> {
+				if ( type.equals("put") ) {
+					return this.processMessageUnchecked(type, author, space, parameter, recipient);
 				} else {
 					return new JSONArray();
 				}
-			};
-		});
+			})
+			.otherwise((type, author, space, parameter, recipient) -> {
+				return new JSONArray();
+			})
+		);
 	}
 	
 	/**
@@ -212,6 +332,62 @@ public abstract class HadesAgent {
 		this.registered = true;
 	}
 	
+	/**
+	 * Sets a time budget for the reaction of each body in each period. When react does not finish
+	 * in time, the agent controller does not wait for it but sends the motor commands determined
+	 * by the given fallback (e.g. Fallback.REPEAT_LAST) and the tock for the body right away, so
+	 * that the simulation can progress at a steady rate. Reactions are then run on a separate
+	 * thread; calls to HexameterContext made by the agent controller are serialized among the
+	 * reacting threads.
+	 * 
+	 * @param budget the time budget per body and period, 0 to disable deadlines (the default)
+	 * @param unit the time unit of budget
+	 * @param fallback decides on the motor commands sent for a body that missed its deadline
+	 * @param cancelLate if true, late reactions are interrupted and any further sensor calls they
+	 *                   make fail with DeadlineMissed; if false, they may finish in the
+	 *                   background, but their motor commands are discarded all the same
+	 */
+	public void setDeadline(long budget, TimeUnit unit, Fallback fallback, boolean cancelLate) {
+		this.deadline = unit.toNanos(budget);
+		this.fallback = fallback;
+		this.cancelLate = cancelLate;
+		if ( this.deadline > 0 && this.reactors == null ) {
+			this.reactors = Executors.newCachedThreadPool((runnable) -> {
+				Thread thread = new Thread(runnable, "hades-react");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+	
+	public void setDeadline(long budget, TimeUnit unit, Fallback fallback) {
+		this.setDeadline(budget, unit, fallback, true);
+	}
+	
+	/**
+	 * Returns how often the reaction of the given body missed its deadline so far.
+	 */
+	public long getDeadlineMisses(String body) {
+		return this.misses.getOrDefault(body, 0L);
+	}
+	
+	public Map<String, Long> getDeadlineMisses() {
+		return this.misses;
+	}
+	
+	/**
+	 * Sends a put message to HADES on behalf of this agent controller. When the agent controller
+	 * is run by a HadesAgentHost, the message is handed to the host instead, which batches the
+	 * messages of all of its agents.
+	 */
+	protected void deliver(String space, JSONArray parameter) {
+		if ( this.host != null ) {
+			this.host.deliver(this.hades, space, parameter);
+		} else {
+			this.hx.tell("put", this.hades, space, parameter);
+		}
+	}
+	
 	/**
 	 * Registers the bodies to be controlled by the HadesAgent with HADES so that the agent is
 	 * sent ticks for the respective bodies. Usually, this will be done automatically by HadesAgent
@@ -225,8 +401,8 @@ public abstract class HadesAgent {
 			tickItem.put("body", body);
 			tickItem.put("soul", hx.me());
 			tickParameter.add(tickItem);
-			hx.tell("put", this.hades, "ticks", tickParameter);
-			hx.tell("put", this.hades, "tocks", tickParameter);
+			this.deliver("ticks", tickParameter);
+			this.deliver("tocks", tickParameter);
 		};
 		this.registered = true;
 	}
@@ -253,21 +429,102 @@ public abstract class HadesAgent {
 			//System.out.println("\n\n::  Entering time period #" + Long.toString(clock.getTime()));
 			for ( String body : this.bodies ) {
 				//System.out.println("::  Computing " + name);
-				ReactionContext reactionContext = new ReactionContext(this, this.clock.getTime(), body);
-				this.react(reactionContext);
-				if ( reactionContext.getReactions() != null ) {
-					this.hx.tell("put", this.hades, "motors", reactionContext.getReactions());
-				};
-				JSONArray tockParameter = new JSONArray();
-				JSONObject tockItem = new JSONObject();
-				tockItem.put("body", body);
-				tockParameter.add(tockItem);
-				hx.tell("put", this.hades, "tocks", tockParameter);
+				this.step(body, this.clock.getTime());
 			}
 		}
 		return response;
 	}
 	
+	/**
+	 * Computes and delivers the reaction of one body for the given period, i.e. runs react,
+	 * sends the resulting motor commands and then the tock for the body.
+	 */
+	protected void step(String body, long period) {
+		HexameterEvents.Tick event = null;
+		if ( HexameterEvents.ENABLED ) {
+			event = HexameterEvents.tick();
+			event.begin();
+		}
+		ReactionContext reactionContext = new ReactionContext(this, period, body);
+		JSONArray reactions;
+		if ( this.deadline > 0 ) {
+			reactions = this.reactInTime(reactionContext);
+		} else {
+			this.react(reactionContext);
+			reactions = reactionContext.getReactions();
+		}
+		synchronized ( this.lock ) {
+			if ( reactions != null ) {
+				this.deliver("motors", reactions);
+			};
+			this.tock(body);
+		}
+		if ( event != null && event.shouldCommit() ) {
+			event.tick(body, period).set("put", "hades.ticks", this.hades, reactions, 0).commit();
+		}
+	}
+	
+	/**
+	 * Sends the tock for the given body. Since tocks are the same in every period, they are sent
+	 * via a MessageTemplate compiled once per body unless a HadesAgentHost batches them.
+	 */
+	@SuppressWarnings("unchecked")
+	protected void tock(String body) {
+		MessageTemplate template = this.tocks.get(body);
+		if ( template != null && this.host == null ) {
+			this.hx.send(template);
+			return;
+		}
+		JSONArray tockParameter = new JSONArray();
+		JSONObject tockItem = new JSONObject();
+		tockItem.put("body", body);
+		tockParameter.add(tockItem);
+		if ( this.host == null ) {
+			template = this.hx.compile("put", this.hades, "tocks", tockParameter);
+			this.tocks.put(body, template);
+			this.hx.send(template);
+		} else {
+			this.deliver("tocks", tockParameter);
+		}
+	}
+	
+	/**
+	 * Runs react for the given context on a separate thread and waits for it no longer than the
+	 * deadline allows. Returns the motor commands to send for the body, i.e. either the reaction
+	 * or, if the deadline has been missed, the result of the fallback.
+	 */
+	protected JSONArray reactInTime(ReactionContext reactionContext) {
+		String body = reactionContext.getBody();
+		Future<?> reaction = this.reactors.submit(() -> {
+			this.react(reactionContext);
+		});
+		try {
+			reaction.get(this.deadline, TimeUnit.NANOSECONDS);
+			if ( reactionContext.getReactions() != null ) {
+				this.lastReactions.put(body, reactionContext.getReactions());
+			} else {
+				this.lastReactions.remove(body);
+			}
+			return reactionContext.getReactions();
+		} catch ( ExecutionException e ) {
+			if ( e.getCause() instanceof RuntimeException ) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} catch ( TimeoutException | InterruptedException e ) {
+			if ( e instanceof InterruptedException ) {
+				Thread.currentThread().interrupt();
+			}
+			// not synchronized: a reaction waiting for a sensor only holds the lock briefly
+			reactionContext.expired = true;
+			if ( this.cancelLate ) {
+				reaction.cancel(true);
+			}
+			this.misses.merge(body, 1L, Long::sum);
+			return this.fallback.fallback(body, reactionContext.getPeriod(), this.lastReactions.get(body));
+		}
+	}
+	
 	
 	/**
 	 * Like processMessageUnchecked, except that it checks for the standard space name for ticks
@@ -309,6 +566,9 @@ public abstract class HadesAgent {
 	}
 	
 	public void stop() {
+		if ( this.reactors != null ) {
+			this.reactors.shutdownNow();
+		}
 		this.hx.term();
 	}	
 }
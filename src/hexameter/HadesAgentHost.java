@@ -0,0 +1,215 @@
+package hexameter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+
+/**
+ * HadesAgentHost runs many HadesAgent instances (possibly with different controllers for
+ * different bodies) on one shared HexameterContext, i.e. in one JVM with one ZeroMQ context and
+ * one port, instead of one HexameterContext per agent controller.
+ * 
+ * Create the agents with the HadesAgent constructor taking a HexameterContext, passing
+ * getHexameterContext() of the host, and add() them to the host. The host then
+ * <ul>
+ * <li>routes incoming hades.ticks to the agents: tick items naming a body are given to the agent
+ *     controlling that body only, tick items without a body are given to all agents,</li>
+ * <li>batches the ticks/tocks registrations as well as the motor commands and tocks produced by
+ *     all agents while handling one tick message into one put message per HADES address and
+ *     space, where motors are always sent before tocks.</li>
+ * </ul>
+ */
+public class HadesAgentHost {
+
+	protected HexameterContext hx;
+	protected ArrayList<HadesAgent> agents = new ArrayList<HadesAgent>();
+	protected HashMap<String, HadesAgent> owners = new HashMap<String, HadesAgent>();
+	protected HashMap<String, Long> periods = new HashMap<String, Long>();
+	protected LinkedHashMap<String, LinkedHashMap<String, JSONArray>> batches = new LinkedHashMap<String, LinkedHashMap<String, JSONArray>>();
+	protected int batching = 0;
+	protected boolean registered = false;
+	
+	/**
+	 * Creates a new HexameterContext under the given address which serves hades.ticks for all
+	 * agents added to this host.
+	 */
+	public HadesAgentHost(String name) {
+		this(new HexameterContext());
+		this.hx.init(name, new SpaceRouter()
+			.on("hades.ticks", (type, author, space, parameter, recipient) -> {
+				return this.processMessageUnchecked(type, author, space, parameter, recipient);
+			})
+			.otherwise((type, author, space, parameter, recipient) -> {
+				return new JSONArray();
+			})
+		);
+	}
+	
+	/**
+	 * Uses a pre-existing HexameterContext. As with the respective HadesAgent constructor, you
+	 * need to pass hades.ticks messages on to processMessage yourself.
+	 */
+	public HadesAgentHost(HexameterContext hexameterContext) {
+		this.hx = hexameterContext;
+	}
+	
+	public HexameterContext getHexameterContext() {
+		return this.hx;
+	}
+	
+	public HadesAgentHost add(HadesAgent agent) {
+		if ( agent.getHexameterContext() != this.hx ) {
+			throw new IllegalArgumentException("agent must use the HexameterContext of its host");
+		}
+		agent.host = this;
+		this.agents.add(agent);
+		for ( String body : agent.getBodies() ) {
+			this.owners.put(body, agent);
+		}
+		return this;
+	}
+	
+	public ArrayList<HadesAgent> getAgents() {
+		return this.agents;
+	}
+	
+	/**
+	 * Collects a message from one of the hosted agents. Outside of tick handling or registration
+	 * the message is sent right away.
+	 */
+	@SuppressWarnings("unchecked")
+	protected void deliver(String hades, String space, JSONArray parameter) {
+		if ( this.batching == 0 ) {
+			this.hx.tell("put", hades, space, parameter);
+			return;
+		}
+		this.batches.putIfAbsent(hades, new LinkedHashMap<String, JSONArray>());
+		LinkedHashMap<String, JSONArray> batch = this.batches.get(hades);
+		batch.putIfAbsent(space, new JSONArray());
+		batch.get(space).addAll(parameter);
+	}
+	
+	protected void flush() {
+		for ( Map.Entry<String, LinkedHashMap<String, JSONArray>> batch : this.batches.entrySet() ) {
+			JSONArray tocks = batch.getValue().remove("tocks");
+			for ( Map.Entry<String, JSONArray> spaceBatch : batch.getValue().entrySet() ) {
+				this.hx.tell("put", batch.getKey(), spaceBatch.getKey(), spaceBatch.getValue());
+			}
+			if ( tocks != null ) {
+				this.hx.tell("put", batch.getKey(), "tocks", tocks);
+			}
+		}
+		this.batches.clear();
+	}
+	
+	/**
+	 * Registers the bodies of all hosted agents with HADES using one ticks and one tocks message
+	 * per HADES address.
+	 */
+	public void registerBodiesWithHADES() {
+		this.batching++;
+		try {
+			for ( HadesAgent agent : this.agents ) {
+				if ( !agent.registered ) {
+					agent.registerBodiesWithHADES();
+				}
+			}
+		} finally {
+			this.batching--;
+		}
+		this.flush();
+		this.registered = true;
+	}
+	
+	/**
+	 * Handles a tick message for the hosted agents without checking its type and space; cf.
+	 * HadesAgent.processMessageUnchecked.
+	 */
+	public JSONArray processMessageUnchecked(String type, String author, String space, JSONArray parameter, String recipient) {
+		this.batching++;
+		try {
+			for ( Object parameterItem : parameter ) {
+				JSONObject item = (JSONObject) parameterItem;
+				if ( item.get("period") == null ) {
+					continue;
+				}
+				long period = (long) item.get("period");
+				String body = (String) item.get("body");
+				if ( body != null ) {
+					HadesAgent agent = this.owners.get(body);
+					if ( agent != null && period > this.periods.getOrDefault(body, 0L) ) {
+						this.periods.put(body, period);
+						agent.clock.update(period);
+						agent.step(body, period);
+					}
+				} else {
+					for ( HadesAgent agent : this.agents ) {
+						if ( agent.clock.update(period) ) {
+							for ( String agentBody : agent.getBodies() ) {
+								if ( period > this.periods.getOrDefault(agentBody, 0L) ) {
+									this.periods.put(agentBody, period);
+									agent.step(agentBody, period);
+								}
+							}
+						}
+					}
+				}
+			}
+		} finally {
+			this.batching--;
+		}
+		if ( this.batching == 0 ) {
+			this.flush();
+		}
+		return new JSONArray();
+	}
+	
+	public JSONArray processMessage(String type, String author, String space, JSONArray parameter, String recipient) {
+		if ( type.equals("put") && space.equals("hades.ticks") ) {
+			return this.processMessageUnchecked(type, author, space, parameter, recipient);
+		} else {
+			return null;
+		}
+	}
+	
+	public void run() {
+		if ( !this.registered ) {
+			this.registerBodiesWithHADES();
+		}
+		this.hx.respond(0);
+	}
+	
+	public void runMaybe() {
+		if ( !this.registered ) {
+			this.registerBodiesWithHADES();
+		}
+		this.hx.respond();
+	}
+	
+	public void runForever() {
+		while ( true ) {
+			this.run();
+		}
+	}
+	
+	public void stop() {
+		this.hx.term();
+	}
+	
+	public static void main(String[] args) {
+		String hadesAddress = args.length >= 1 ? args[0] : "localhost:55555";
+		String myAddress = args.length >= 2 ? args[1] : "localhost:99999";
+		int bodyCount = args.length >= 3 ? Integer.parseInt(args[2]) : 12;
+		System.out.println("**  Starting HadesAgentHost with one ObstacleAgent per body...");
+		HadesAgentHost host = new HadesAgentHost(myAddress);
+		for ( int b = 1; b <= bodyCount; b++ ) {
+			String[] bodies = {"math" + b};
+			host.add(new ObstacleAgent(hadesAddress, host.getHexameterContext(), bodies));
+		}
+		host.runForever();
+	}
+}
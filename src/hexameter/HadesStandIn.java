@@ -0,0 +1,249 @@
+package hexameter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+
+/**
+ * HadesStandIn is a minimal local replacement for HADES (cf. the readme.txt) meant for load
+ * testing agent controllers like ObstacleAgent without a HADES/ARGoS deployment. It speaks the
+ * same protocol as HADES as far as souls are concerned:
+ * <ul>
+ * <li>put({{body: ..., soul: ...}})@ticks registers a soul for a body,</li>
+ * <li>put({{body: ...}})@tocks signals that a soul is done with the current period,</li>
+ * <li>get/qry({{body: ..., type: ...}})@sensors is answered with synthetic (or recorded)
+ *     measurements, e.g. 24-element proximity arrays, which are packed (cf. PackedCodec) if the
+ *     request item contains encoding: "f64",</li>
+ * <li>put({{body: ..., type: ..., control: ...}})@motors is accepted and counted.</li>
+ * </ul>
+ * Once all expected bodies are registered and all of them have tocked, the stand-in advances to
+ * the next period and sends put({{period: n}})@hades.ticks to every registered soul. It measures
+ * the number of periods per second and the latency from sending the ticks to receiving the last
+ * tock of a period.
+ * 
+ * The static main() method runs a complete benchmark on one machine: it starts the stand-in and
+ * a given number of ObstacleAgent instances (each with its own HexameterContext, just like
+ * separate processes would have) sharing the given number of bodies between them.
+ */
+public class HadesStandIn {
+
+	protected HexameterContext hx;
+	protected int expectedBodies;
+	protected LinkedHashMap<String, String> souls = new LinkedHashMap<String, String>();
+	protected HashSet<String> tocked = new HashSet<String>();
+	protected HashMap<String, MessageTemplate> ticks = new HashMap<String, MessageTemplate>();
+	protected long period = 0;
+	protected long tickSent = 0;
+	protected long motors = 0;
+	protected long sensors = 0;
+	protected LatencyStats periods = new LatencyStats();
+	protected HashMap<String, ArrayList<Object>> recorded = new HashMap<String, ArrayList<Object>>();
+	protected HashMap<String, Integer> replayed = new HashMap<String, Integer>();
+	protected Random random = new Random(42);
+	
+	public HadesStandIn(String name, int expectedBodies) {
+		this.expectedBodies = expectedBodies;
+		this.hx = new HexameterContext();
+		this.hx.init(name, new SpaceRouter()
+			.on("ticks", (type, author, space, parameter, recipient) -> {
+				for ( Object parameterItem : parameter ) {
+					JSONObject item = (JSONObject) parameterItem;
+					if ( item.get("body") != null && item.get("soul") != null ) {
+						this.souls.put((String) item.get("body"), (String) item.get("soul"));
+					}
+				}
+				this.advance();
+				return parameter;
+			})
+			.on("tocks", (type, author, space, parameter, recipient) -> {
+				for ( Object parameterItem : parameter ) {
+					JSONObject item = (JSONObject) parameterItem;
+					if ( item.get("body") != null ) {
+						this.tocked.add((String) item.get("body"));
+					}
+				}
+				this.advance();
+				return parameter;
+			})
+			.on("motors", (type, author, space, parameter, recipient) -> {
+				this.motors += parameter.size();
+				return parameter;
+			})
+			.on("sensors", (type, author, space, parameter, recipient) -> {
+				return this.sense(parameter);
+			})
+			.otherwise((type, author, space, parameter, recipient) -> {
+				return new JSONArray();
+			})
+		);
+	}
+	
+	/**
+	 * Loads sensor measurements from a MessageJournal recorded at a soul (cf. JournalSphere).
+	 * Each outgoing sensor request is matched with the next incoming acknowledgment from the
+	 * sensors space. Recorded measurements are served round-robin per sensor type; types
+	 * without recorded data are still answered synthetically.
+	 */
+	public HadesStandIn loadRecording(String path) throws IOException {
+		MessageJournal journal = MessageJournal.open(path);
+		LinkedList<String> requested = new LinkedList<String>();
+		try {
+			MessageJournal.Entry entry;
+			while ( (entry = journal.next()) != null ) {
+				if ( !"sensors".equals(entry.space) ) {
+					continue;
+				}
+				JSONArray parameter = (JSONArray) JSONValue.parse(entry.parameter);
+				if ( entry.direction == MessageJournal.OUT && !entry.type.equals("ack") ) {
+					for ( Object parameterItem : parameter ) {
+						requested.add((String) ((JSONObject) parameterItem).get("type"));
+					}
+				} else if ( entry.direction == MessageJournal.IN && entry.type.equals("ack") ) {
+					for ( Object parameterItem : parameter ) {
+						String sensorType = requested.poll();
+						if ( sensorType != null ) {
+							this.recorded.putIfAbsent(sensorType, new ArrayList<Object>());
+							this.recorded.get(sensorType).add(((JSONObject) parameterItem).get("value"));
+						}
+					}
+				}
+			}
+		} finally {
+			journal.close();
+		}
+		return this;
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected JSONArray sense(JSONArray parameter) {
+		JSONArray response = new JSONArray();
+		for ( Object parameterItem : parameter ) {
+			JSONObject item = (JSONObject) parameterItem;
+			JSONObject responseItem = new JSONObject();
+			Object value = this.measure((String) item.get("body"), (String) item.get("type"));
+			if ( PackedCodec.DOUBLES.equals(item.get("encoding")) && value instanceof JSONArray ) {
+				value = PackedCodec.pack(PackedCodec.doubles(value));
+			}
+			responseItem.put("value", value);
+			response.add(responseItem);
+			this.sensors++;
+		}
+		return response;
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected Object measure(String body, String type) {
+		ArrayList<Object> values = this.recorded.get(type);
+		if ( values != null && !values.isEmpty() ) {
+			int next = this.replayed.getOrDefault(type, 0);
+			this.replayed.put(type, next + 1);
+			return values.get(next % values.size());
+		}
+		if ( "proximity".equals(type) ) {
+			JSONArray proximity = new JSONArray();
+			for ( int i = 0; i < 24; i++ ) {
+				JSONObject reading = new JSONObject();
+				reading.put("angle", (i + 0.5) * 2 * Math.PI / 24);
+				reading.put("value", this.random.nextInt(4) == 0 ? this.random.nextDouble() : 0.0);
+				proximity.add(reading);
+			}
+			return proximity;
+		}
+		return 0.0;
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected void advance() {
+		if ( this.souls.size() < this.expectedBodies || !this.tocked.containsAll(this.souls.keySet()) ) {
+			return;
+		}
+		long now = System.nanoTime();
+		if ( this.period == 0 ) {
+			this.periods.start();
+		} else {
+			this.periods.record(now - this.tickSent);
+		}
+		this.tocked.clear();
+		this.period++;
+		for ( String soul : new HashSet<String>(this.souls.values()) ) {
+			MessageTemplate tick = this.ticks.get(soul);
+			if ( tick == null ) {
+				JSONObject tickItem = new JSONObject();
+				tickItem.put("period", MessageTemplate.slot());
+				tick = this.hx.compile("put", soul, "hades.ticks", tickItem);
+				this.ticks.put(soul, tick);
+			}
+			this.hx.send(tick, this.period);
+		}
+		this.tickSent = System.nanoTime();
+	}
+	
+	public HexameterContext getHexameterContext() {
+		return this.hx;
+	}
+	
+	public long getPeriod() {
+		return this.period;
+	}
+	
+	public LatencyStats getPeriodStats() {
+		return this.periods;
+	}
+	
+	public String report() {
+		return this.periods.summary("periods")
+				+ String.format(", %d sensor readings, %d motor commands", this.sensors, this.motors);
+	}
+	
+	/**
+	 * Processes messages until the given number of periods has been completed.
+	 */
+	public void run(long periods) {
+		while ( this.period <= periods ) {
+			this.hx.respond(0);
+		}
+		this.periods.stop();
+	}
+	
+	public void stop() {
+		this.hx.term();
+	}
+	
+	public static void main(String[] args) throws IOException {
+		int bodyCount = args.length >= 1 ? Integer.parseInt(args[0]) : 12;
+		int agentCount = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+		long periodCount = args.length >= 3 ? Long.parseLong(args[2]) : 1000;
+		String hadesAddress = args.length >= 4 ? args[3] : "localhost:55555";
+		int agentPort = args.length >= 5 ? Integer.parseInt(args[4]) : 56000;
+		HadesStandIn hades = new HadesStandIn(hadesAddress, bodyCount);
+		if ( args.length >= 6 ) {
+			hades.loadRecording(args[5]);
+		}
+		System.out.println("**  Starting HADES stand-in at " + hadesAddress + " for " + bodyCount + " bodies and " + agentCount + " agents...");
+		for ( int a = 0; a < agentCount; a++ ) {
+			ArrayList<String> managed = new ArrayList<String>();
+			for ( int b = a; b < bodyCount; b += agentCount ) {
+				managed.add("math" + (b + 1));
+			}
+			String agentAddress = "localhost:" + (agentPort + a);
+			Thread agentThread = new Thread(() -> {
+				ObstacleAgent agent = new ObstacleAgent(hadesAddress, agentAddress, managed.toArray(new String[managed.size()]));
+				agent.setVerbose(false);
+				agent.runForever();
+			}, "agent-" + agentAddress);
+			agentThread.setDaemon(true);
+			agentThread.start();
+		}
+		hades.run(periodCount);
+		System.out.println("**  " + hades.report());
+		System.exit(0);
+	}
+}
@@ -1,4 +1,12 @@
 package hexameter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -15,9 +23,36 @@ import org.json.simple.JSONObject;
  */
 public class HexameterContext {
 
+	/**
+	 * The copies of a message tellAll() collects for one multicast, cf. there.
+	 */
+	protected static class Multicast {
+		protected String type;
+		protected String space;
+		protected JSONArray parameter;
+		protected ArrayList<String> recipients = new ArrayList<String>();
+		
+		protected Multicast(String type, String space, JSONArray parameter) {
+			this.type = type;
+			this.space = space;
+			this.parameter = parameter;
+		}
+	}
+	
 	protected String me;
 	protected DaktylosContext medium;
 	protected SpondeiosContext behavior;
+	protected HexameterContext[] shards = null;
+	protected Thread[] shardThreads = null;
+	protected HexameterContext client = null;
+	protected ThreadLocal<HexameterContext> current = null;
+	protected volatile boolean serving = false;
+	protected PeerHealth health = null;
+	protected Map<String, RecipientGroup> groups = new ConcurrentHashMap<String, RecipientGroup>();
+	protected SpaceTable<MessageStream> streams = new SpaceTable<MessageStream>();
+	protected List<MessageStream> streamList = new CopyOnWriteArrayList<MessageStream>();
+	protected long pacedSince = 0;
+	protected ThreadLocal<ArrayList<Multicast>> multicasts = new ThreadLocal<ArrayList<Multicast>>();
 	
 	/**
 	 * Initializes the HexameterContext. This causes Hexameter to listen on the specified port but
@@ -38,27 +73,109 @@ public class HexameterContext {
 	 * @return
 	 */
 	public HexameterContext init(String name, Space callback, Sphere[] spheres) {
+		if ( DaktylosContext.isSharded(name) ) {
+			return this.initSharded(name, callback, spheres);
+		}
 		this.me = name;
 		this.medium = new DaktylosContext();
 		this.behavior = new SpondeiosContext();
 		this.behavior.init(
 				this.me,
 				(type, recipient, space, parameter, author) -> {
+					ArrayList<Multicast> multicasts = this.multicasts.get();
+					if ( multicasts != null ) {
+						this.collect(multicasts, type, recipient, space, parameter);
+						return null;
+					}
+					if ( this.health != null ) {
+						this.health.sent(this.medium.resolve(recipient, space));
+					}
 					this.medium.message(type, recipient, space, parameter);
 					return null;
 				},
-				callback,
+				() -> {
+					MessageProcessor processor = callback.install();
+					return (type, author, space, parameter, recipient) -> {
+						if ( !this.streamList.isEmpty() ) {
+							MessageStream stream = this.streams.get(space);
+							if ( stream != null ) {
+								return stream.process(type, author, space, parameter, recipient);
+							}
+						}
+						return processor.process(type, author, space, parameter, recipient);
+					};
+				},
 				spheres
 		);
 		this.medium.init(
 				this.me,
 				(type, author, space, parameter, recipient) -> {
+					if ( this.health != null ) {
+						this.health.heard(type, author, space, parameter);
+					}
 					return this.behavior.process(type, author, space, parameter, recipient);
 				}
 		);
 		return this;
 	}
 	
+	/**
+	 * Initializes the HexameterContext in sharded mode, which is chosen by init() for names of the
+	 * form "host:port*shards" (or "host:port*shards/author"). The context then listens on the
+	 * ports port to port+shards-1, each with its own socket, thread and instance of the sphere
+	 * chain and of the MessageProcessor installed from callback (so the callback is called once
+	 * per shard and should return a fresh processor each time, or a thread-safe one). Senders
+	 * pick the shard by hashing the message's space (or author), cf. DaktylosContext.shard, so
+	 * all messages to one space are processed in order by the same shard.
+	 * 
+	 * The shards start processing messages right away; respond() need not be called. Calls to
+	 * tell(), ask() etc. made while processing a message are served by the processing shard, so
+	 * responses find their way back to it. Calls from other threads are served by an additional
+	 * plain context listening on port+shards.
+	 */
+	protected HexameterContext initSharded(String name, Space callback, Sphere[] spheres) {
+		Matcher matcher = DaktylosContext.SHARDED.matcher(name);
+		matcher.matches();
+		String host = matcher.group(1);
+		int port = Integer.parseInt(matcher.group(2));
+		int count = Integer.parseInt(matcher.group(3));
+		this.me = name;
+		this.current = new ThreadLocal<HexameterContext>();
+		this.shards = new HexameterContext[count];
+		this.shardThreads = new Thread[count];
+		this.serving = true;
+		for ( int i = 0; i < count; i++ ) {
+			HexameterContext shard = new HexameterContext().init(host + ":" + Integer.toString(port + i), callback, spheres);
+			shard.groups = this.groups;
+			shard.streams = this.streams;
+			shard.streamList = this.streamList;
+			this.shards[i] = shard;
+			this.shardThreads[i] = new Thread(() -> {
+				this.current.set(shard);
+				while ( this.serving ) {
+					shard.respond(0);
+				}
+			}, "hexameter-shard-" + shard.me());
+			this.shardThreads[i].setDaemon(true);
+		}
+		this.client = new HexameterContext().init(host + ":" + Integer.toString(port + count), callback, spheres);
+		this.client.groups = this.groups;
+		this.client.streams = this.streams;
+		this.client.streamList = this.streamList;
+		for ( Thread thread : this.shardThreads ) {
+			thread.start();
+		}
+		return this;
+	}
+	
+	/**
+	 * In sharded mode, returns the context serving the current thread.
+	 */
+	protected HexameterContext local() {
+		HexameterContext shard = this.current.get();
+		return shard != null ? shard : this.client;
+	}
+	
 	public HexameterContext init(String name, Space callback) {
 		return this.init(name, callback, SpondeiosContext.DefaultSpheres);
 	}
@@ -71,10 +188,130 @@ public class HexameterContext {
 	 * Terminates the HexameterContext.
 	 */
 	public void term() {
+		for ( MessageStream stream : this.streamList ) {
+			stream.complete();
+		}
+		if ( this.shards != null ) {
+			this.serving = false;
+			for ( HexameterContext shard : this.shards ) {
+				this.client.tell("put", shard.me(), "net.life", new JSONArray());
+			}
+			for ( Thread thread : this.shardThreads ) {
+				try {
+					thread.join();
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			for ( HexameterContext shard : this.shards ) {
+				shard.term();
+			}
+			this.client.term();
+			return;
+		}
 		this.behavior.term();
 		this.medium.term();
 	}
 	
+	/**
+	 * Starts tracking the health of the peers this HexameterContext sends messages to, cf.
+	 * PeerHealth. All times are given in ms. In sharded mode, every shard tracks its peers on its
+	 * own; the PeerHealth of the context serving the current thread is returned.
+	 */
+	public PeerHealth monitor(long interval, long suspectAfter, long deadAfter) {
+		if ( this.shards != null ) {
+			for ( HexameterContext shard : this.shards ) {
+				shard.monitor(interval, suspectAfter, deadAfter);
+			}
+			this.client.monitor(interval, suspectAfter, deadAfter);
+			return this.local().health;
+		}
+		this.health = new PeerHealth(this, interval, suspectAfter, deadAfter);
+		return this.health;
+	}
+	
+	public PeerHealth getHealth() {
+		if ( this.shards != null ) {
+			return this.local().getHealth();
+		}
+		return this.health;
+	}
+	
+	/**
+	 * Registers a logical recipient name standing for the given replica addresses, which can then
+	 * be used as recipient of tell() and ask(). Cf. RecipientGroup.
+	 */
+	public RecipientGroup group(String name, RecipientGroup.Policy policy, String... addresses) {
+		RecipientGroup group = new RecipientGroup(name, policy, addresses);
+		this.groups.put(name, group);
+		return group;
+	}
+	
+	public RecipientGroup group(String name, String... addresses) {
+		return this.group(name, RecipientGroup.Policy.ROUND_ROBIN, addresses);
+	}
+	
+	public RecipientGroup getGroup(String name) {
+		return this.groups.get(name);
+	}
+	
+	/**
+	 * Returns a stream of all messages received for the given space (after passing the spheres),
+	 * which are then no longer given to the space defined in init() and not answered. At most
+	 * capacity messages not yet requested by the stream's subscriber are buffered; while the
+	 * buffer is full, respond() receives no messages. Cf. MessageStream. Streams should be set up
+	 * before messages for their spaces arrive.
+	 * 
+	 * While a stream is saturated, ask() only receives the acks it waits for if priority lanes
+	 * with an acks lane are set (cf. DaktylosContext.setPriorityLanes and PriorityLanes.hades);
+	 * otherwise, asks wait until the stream has capacity again. Peer health (cf. monitor()) does
+	 * not count that time as silence of the peers.
+	 */
+	public MessageStream stream(String space, int capacity) {
+		MessageStream stream = new MessageStream(space, capacity);
+		this.streams.put(space, stream);
+		this.streamList.add(stream);
+		return stream;
+	}
+	
+	public MessageStream stream(String space) {
+		return this.stream(space, 1000);
+	}
+	
+	/**
+	 * Like stream(), but for all spaces starting with the given prefix.
+	 */
+	public MessageStream streamPrefix(String prefix, int capacity) {
+		MessageStream stream = new MessageStream(prefix + "*", capacity);
+		this.streams.putPrefix(prefix, stream);
+		this.streamList.add(stream);
+		return stream;
+	}
+	
+	/**
+	 * Waits for at most timeout ms (forever if negative) until no stream is saturated. Returns
+	 * false if one still is.
+	 */
+	protected boolean paced(long timeout) {
+		for ( MessageStream stream : this.streamList ) {
+			if ( stream.isSaturated() ) {
+				if ( this.pacedSince == 0 ) {
+					this.pacedSince = System.nanoTime();
+				}
+				if ( !stream.awaitCapacity(timeout) ) {
+					return false;
+				}
+			}
+		}
+		if ( this.pacedSince != 0 ) {
+			if ( this.health != null ) {
+				this.health.excuse(System.nanoTime() - this.pacedSince);
+			}
+			this.pacedSince = 0;
+		}
+		return true;
+	}
+	
 	/**
 	 * Returns the network address of this HexameterContext.
 	 * @return name
@@ -83,6 +320,18 @@ public class HexameterContext {
 		return this.me;
 	}
 	
+	/**
+	 * Returns the DaktylosContext doing the networking for this HexameterContext, e.g. to adjust
+	 * its outbound queues or to read its send metrics. In sharded mode, returns the one serving
+	 * the current thread.
+	 */
+	public DaktylosContext getMedium() {
+		if ( this.shards != null ) {
+			return this.local().getMedium();
+		}
+		return this.medium;
+	}
+	
 	/**
 	 * Sends a Hexameter message via network connections as specified.
 	 * 
@@ -103,7 +352,94 @@ public class HexameterContext {
 	 * @return the sent message, should usually be ignored.
 	 */
 	public JSONArray tell(String type, String recipient, String space, JSONArray parameter, String author) {
-		return this.behavior.act(type, recipient, space, parameter, author);
+		if ( this.shards != null ) {
+			return this.local().tell(type, recipient, space, parameter, author.equals(this.me) ? this.local().me() : author);
+		}
+		return this.behavior.act(type, this.pick(recipient), space, parameter, author);
+	}
+	
+	/**
+	 * Returns the address of the replica to send the next message to if recipient names a
+	 * RecipientGroup, else recipient itself.
+	 */
+	protected String pick(String recipient) {
+		if ( !this.groups.isEmpty() ) {
+			RecipientGroup group = this.groups.get(recipient);
+			if ( group != null ) {
+				return group.pick().getAddress();
+			}
+		}
+		return recipient;
+	}
+	
+	/**
+	 * Sends the same Hexameter message to all of the given recipients. Like with tell(), the
+	 * spheres process the message for each recipient, but the copies leaving the spheres
+	 * unchanged are collected and sent via one multicast, so that the message is serialized only
+	 * once. Messages to this HexameterContext itself are processed locally as with tell().
+	 * 
+	 * @return the sent message, should usually be ignored.
+	 */
+	public JSONArray tellAll(String type, String[] recipients, String space, JSONArray parameter, String author) {
+		if ( this.shards != null ) {
+			return this.local().tellAll(type, recipients, space, parameter, author.equals(this.me) ? this.local().me() : author);
+		}
+		JSONArray result = null;
+		int local = 0;
+		ArrayList<Multicast> multicasts = new ArrayList<Multicast>();
+		this.multicasts.set(multicasts);
+		try {
+			for ( String name : recipients ) {
+				String recipient = this.pick(name);
+				if ( recipient.equals(this.me()) ) {
+					local++;
+				} else {
+					result = this.behavior.act(type, recipient, space, parameter, author);
+				}
+			}
+		} finally {
+			this.multicasts.remove();
+		}
+		for ( Multicast multicast : multicasts ) {
+			String[] addresses = multicast.recipients.toArray(new String[multicast.recipients.size()]);
+			if ( this.health != null ) {
+				for ( String address : addresses ) {
+					this.health.sent(this.medium.resolve(address, multicast.space));
+				}
+			}
+			this.medium.multicast(multicast.type, addresses, multicast.space, multicast.parameter);
+		}
+		// processed last, so that messages sent meanwhile are not collected for the multicast
+		for ( int i = 0; i < local; i++ ) {
+			result = this.tell(type, this.me(), space, parameter, author);
+		}
+		return result;
+	}
+	
+	/**
+	 * Adds a message that left the spheres during tellAll() to the multicast of the same message.
+	 */
+	protected void collect(ArrayList<Multicast> multicasts, String type, String recipient, String space, JSONArray parameter) {
+		for ( Multicast multicast : multicasts ) {
+			if ( multicast.parameter == parameter && multicast.type.equals(type) && multicast.space.equals(space) ) {
+				multicast.recipients.add(recipient);
+				return;
+			}
+		}
+		Multicast multicast = new Multicast(type, space, parameter);
+		multicast.recipients.add(recipient);
+		multicasts.add(multicast);
+	}
+	
+	public JSONArray tellAll(String type, String[] recipients, String space, JSONArray parameter) {
+		return this.tellAll(type, recipients, space, parameter, this.me());
+	}
+	
+	@SuppressWarnings("unchecked")
+	public JSONArray tellAll(String type, String[] recipients, String space, JSONObject item) {
+		JSONArray parameter = new JSONArray();
+		parameter.add(item);
+		return this.tellAll(type, recipients, space, parameter, this.me());
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -129,6 +465,37 @@ public class HexameterContext {
 		return this.tell("put", recipient, space, item);
 	}
 	
+	/**
+	 * Compiles a message into a MessageTemplate, which can then be sent repeatedly via send()
+	 * without serializing it again. The parameter may contain MessageTemplate.Slot values for
+	 * integral numbers to be filled in on each send. Note that templates are sent directly to
+	 * the network, i.e. past all spheres. A template for a RecipientGroup is compiled for (and
+	 * thus always sent to) the replica picked when compiling it.
+	 */
+	public MessageTemplate compile(String type, String recipient, String space, JSONArray parameter) {
+		if ( this.shards != null ) {
+			return this.local().compile(type, recipient, space, parameter);
+		}
+		return this.medium.compile(type, this.pick(recipient), space, parameter);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public MessageTemplate compile(String type, String recipient, String space, JSONObject item) {
+		JSONArray parameter = new JSONArray();
+		parameter.add(item);
+		return this.compile(type, recipient, space, parameter);
+	}
+	
+	/**
+	 * Sends a message compiled via compile(), filling in its slots with the given values.
+	 */
+	public boolean send(MessageTemplate template, long... values) {
+		if ( this.shards != null ) {
+			return this.local().send(template, values);
+		}
+		return this.medium.message(template, values);
+	}
+	
 	/**
 	 * Processes a Hexameter message locally as if received by an external component via network.
 	 * 
@@ -136,6 +503,9 @@ public class HexameterContext {
 	 * exchanged in order, though.
 	 */
 	public JSONArray process(String type, String author, String space, JSONArray parameter, String recipient) {
+		if ( this.shards != null ) {
+			return this.local().process(type, author, space, parameter, recipient);
+		}
 		return this.behavior.process(type, author, space, parameter, recipient);
 	}
 	
@@ -166,10 +536,28 @@ public class HexameterContext {
 	 * @return true if new message was received during attempts
 	 */
 	public boolean respond(int tries) {
+		if ( this.shards != null ) {
+			return this.local().respond(tries);
+		}
+		if ( this.health != null && this.pacedSince == 0 ) {
+			this.health.tick();
+		}
+		if ( !this.streamList.isEmpty() && !this.paced(tries == 0 ? -1 : 0) ) {
+			return false;
+		}
 		return this.medium.respond(tries);
 	}
 	
 	public boolean respond() {
+		if ( this.shards != null ) {
+			return this.local().respond();
+		}
+		if ( this.health != null && this.pacedSince == 0 ) {
+			this.health.tick();
+		}
+		if ( !this.streamList.isEmpty() && !this.paced(0) ) {
+			return false;
+		}
 		return this.medium.respond();
 	}
 	
@@ -179,25 +567,133 @@ public class HexameterContext {
 	 * See the tell() method for an explanation on the available arguments. Also note the various
 	 * shortcuts available.
 	 * 
+	 * @param timeout
+	 *        optional, the maximum time to wait for the response in ms. If left out, ask waits
+	 *        until the response arrives or, if peer health is monitored (cf. monitor()), until
+	 *        the asked peer is considered dead. When asking a RecipientGroup, the timeout
+	 *        applies to all replicas tried together, each of which is waited for no longer than
+	 *        the group's timeout.
 	 * @return the received response
+	 * @throws PeerHealth.Unreachable if no response arrived in time or the peer is dead
 	 */
 	@SuppressWarnings("unchecked")
-	public JSONArray ask(String type, String recipient, String space, JSONArray parameter) {
+	public JSONArray ask(String type, String recipient, String space, JSONArray parameter, long timeout) {
+		if ( this.shards != null ) {
+			return this.local().ask(type, recipient, space, parameter, timeout);
+		}
+		if ( !this.groups.isEmpty() ) {
+			RecipientGroup group = this.groups.get(recipient);
+			if ( group != null ) {
+				return this.ask(group, type, space, parameter, timeout);
+			}
+		}
+		String peer = this.medium.resolve(recipient, space);
 		JSONObject lustItem = new JSONObject();
-		lustItem.put("author", recipient);
+		lustItem.put("author", peer);
 		lustItem.put("space", space);
 		JSONArray lustParameter = new JSONArray();
 		lustParameter.add(lustItem);
 		this.process("put", this.me(), "net.lust", lustParameter, this.me());
-		this.tell(type, recipient, space, parameter);
+		Tracer.Span span = Tracer.child("ask", type, space, this.me(), peer);
+		HexameterEvents.Ask event = null;
+		if ( HexameterEvents.ENABLED ) {
+			event = HexameterEvents.ask();
+			event.begin();
+		}
 		JSONArray response = null;
-		while ( response == null ) {
-			this.respond(0);
-			response = this.process("get", this.me(), "net.lust", lustParameter);
+		try {
+			this.tell(type, recipient, space, parameter);
+			response = this.await(type, peer, space, lustParameter, timeout);
+		} finally {
+			if ( event != null && event.shouldCommit() ) {
+				event.answered(response != null).set(type, space, peer, response, 0).commit();
+			}
+			span.close();
+		}
+		return response;
+	}
+	
+	/**
+	 * Asks the replicas of the given group, one after another, until one answers in time.
+	 */
+	protected JSONArray ask(RecipientGroup group, String type, String space, JSONArray parameter, long timeout) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		PeerHealth.Unreachable failure = null;
+		for ( int attempt = 0; attempt < group.size(); attempt++ ) {
+			long wait = group.getTimeout();
+			if ( timeout >= 0 ) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if ( remaining <= 0 && failure != null ) {
+					break;
+				}
+				wait = Math.min(wait, Math.max(0, remaining));
+			}
+			RecipientGroup.Replica replica = group.pick();
+			group.asking(replica);
+			long started = System.nanoTime();
+			try {
+				JSONArray response = this.ask(type, replica.getAddress(), space, parameter, wait);
+				group.answered(replica, System.nanoTime() - started);
+				return response;
+			} catch ( PeerHealth.Unreachable e ) {
+				group.failed(replica);
+				failure = e;
+			}
+		}
+		throw new PeerHealth.Unreachable(group.getName(), "no replica answered " + type + "@" + space + " (" + failure.getMessage() + ")");
+	}
+	
+	/**
+	 * Waits for the response to an ask, cf. there.
+	 */
+	protected JSONArray await(String type, String peer, String space, JSONArray lustParameter, long timeout) {
+		long started = System.nanoTime();
+		JSONArray response;
+		while ( (response = this.process("get", this.me(), "net.lust", lustParameter)) == null ) {
+			if ( this.health == null && timeout < 0 && (this.streamList.isEmpty() || this.medium.getPriorityLanes() == null) ) {
+				this.respond(0);
+				continue;
+			}
+			long wait = Long.MAX_VALUE;
+			if ( this.health != null ) {
+				if ( this.pacedSince == 0 ) {
+					this.health.tick();
+				}
+				this.health.check(peer);
+				wait = this.health.getInterval();
+			}
+			if ( timeout >= 0 ) {
+				long remaining = timeout - (System.nanoTime() - started) / 1000000;
+				if ( remaining <= 0 ) {
+					throw new PeerHealth.Unreachable(peer, "no answer to " + type + "@" + space + " within " + timeout + "ms");
+				}
+				wait = Math.min(wait, remaining);
+			}
+			if ( !this.streamList.isEmpty() && !this.paced(0) ) {
+				// only acks get past saturated streams, cf. stream()
+				if ( this.medium.getPriorityLanes() != null ) {
+					this.medium.respondAcks(Math.min(wait, 10));
+				} else {
+					this.paced(wait);
+				}
+				continue;
+			}
+			this.medium.respondWithin(wait);
 		}
 		return response;
 	}
 	
+	public JSONArray ask(String type, String recipient, String space, JSONArray parameter) {
+		return this.ask(type, recipient, space, parameter, -1);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public JSONArray ask(String type, String recipient, String space, JSONObject item, long timeout) {
+		JSONArray parameter = new JSONArray();
+		parameter.add(item);
+		return this.ask(type, recipient, space, parameter, timeout);
+	}
+	
 	@SuppressWarnings("unchecked")
 	public JSONArray ask(String type, String recipient, String space, JSONObject item) {
 		JSONArray parameter = new JSONArray();
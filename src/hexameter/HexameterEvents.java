@@ -0,0 +1,128 @@
+package hexameter;
+import org.json.simple.JSONArray;
+
+
+/**
+ * HexameterEvents holds the JDK Flight Recorder events emitted by Hexameter, so that recordings
+ * show which spaces and peers time is spent on:
+ * <ul>
+ * <li>hexameter.Receive for decoding and parsing a received message (DaktylosContext),</li>
+ * <li>hexameter.Stage for each sphere and the final MessageProcessor processing a message
+ *     (SpondeiosContext); as spheres call each other, a stage's duration includes the stages
+ *     within it,</li>
+ * <li>hexameter.Send for serializing and sending a message (DaktylosContext),</li>
+ * <li>hexameter.Ask for sending an ask and waiting for its response (HexameterContext) and</li>
+ * <li>hexameter.Tick for a HadesAgent reacting to a tick for one of its bodies.</li>
+ * </ul>
+ * Like all JFR events, they are disabled unless a recording enables them, e.g. via
+ *   java -XX:StartFlightRecording:filename=hexameter.jfr ...
+ * and then cost little more than an allocation the JIT usually removes.
+ *
+ * As Hexameter still compiles for Java 8, the events themselves (which extend jdk.jfr.Event) are
+ * kept in the optional source folder src-jfr (cf. FlightRecorderEvents) and are loaded by name.
+ * The Eclipse project (which targets Java 8) leaves src-jfr out; compile it with JDK 11 (or 8u262
+ * and later) into the same output as src, e.g.
+ *   javac -cp bin:lib/json-simple-1.1.1.jar -d bin src-jfr/hexameter/*.java
+ * If they have not been compiled, the JVM lacks JFR (Java 8 before 8u262) or the system property
+ * hexameter.jfr is set to false, ENABLED is false and no events are created at all.
+ */
+public class HexameterEvents {
+	
+	/**
+	 * Creates the events, cf. FlightRecorderEvents in src-jfr.
+	 */
+	public static interface Factory {
+		Receive receive();
+		
+		Stage stage();
+		
+		Send send();
+		
+		Ask ask();
+		
+		Tick tick();
+	}
+	
+	public static interface MessageEvent {
+		void begin();
+		
+		boolean shouldCommit();
+		
+		void commit();
+		
+		MessageEvent set(String type, String space, String peer, JSONArray parameter, long bytes);
+	}
+	
+	public static interface Receive extends MessageEvent {
+	}
+	
+	public static interface Stage extends MessageEvent {
+		Stage stage(String stage, String direction);
+	}
+	
+	public static interface Send extends MessageEvent {
+	}
+	
+	public static interface Ask extends MessageEvent {
+		Ask answered(boolean answered);
+	}
+	
+	public static interface Tick extends MessageEvent {
+		Tick tick(String body, long period);
+	}
+	
+	protected static final Factory FACTORY = load();
+	
+	public static final boolean ENABLED = FACTORY != null;
+	
+	protected static Factory load() {
+		if ( "false".equals(System.getProperty("hexameter.jfr")) ) {
+			return null;
+		}
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (Factory) Class.forName("hexameter.FlightRecorderEvents").getDeclaredConstructor().newInstance();
+		} catch ( ReflectiveOperationException | LinkageError e ) {
+			return null;
+		}
+	}
+	
+	// only to be called if ENABLED
+	
+	public static Receive receive() {
+		return FACTORY.receive();
+	}
+	
+	public static Send send() {
+		return FACTORY.send();
+	}
+	
+	public static Ask ask() {
+		return FACTORY.ask();
+	}
+	
+	public static Tick tick() {
+		return FACTORY.tick();
+	}
+	
+	/**
+	 * Wraps processor so that it emits a Stage event for every message it processes.
+	 */
+	public static MessageProcessor stage(MessageProcessor processor, String name, String direction) {
+		if ( !ENABLED ) {
+			return processor;
+		}
+		// the second argument is the author of inbound and the recipient of outbound messages
+		return (type, peer, space, parameter, other) -> {
+			Stage event = FACTORY.stage();
+			event.begin();
+			try {
+				return processor.process(type, peer, space, parameter, other);
+			} finally {
+				if ( event.shouldCommit() ) {
+					event.stage(name, direction).set(type, space, peer, parameter, 0).commit();
+				}
+			}
+		};
+	}
+}
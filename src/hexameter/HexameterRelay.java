@@ -0,0 +1,353 @@
+package hexameter;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.*;
+
+
+/**
+ * HexameterRelay gives a set of Hexameter components (the backends) one common address: It
+ * forwards every message it receives to the backend responsible for the message's space, as
+ * configured via on(), onPrefix() and otherwise(). Spaces served by several backends are
+ * distributed among them by the hash of the space name, so that each space is always served by
+ * the same backend. A sharded backend ("host:port*shards") counts as its shards, of which the
+ * relay picks one like any other sender.
+ *
+ * The relay only reads the envelope's header fields (cf. Envelope) and forwards the raw bytes of
+ * the message, replacing just the author with its own address. Thus, the backend's ack reaches
+ * the relay, which passes it on to the original author, again with its own address as author,
+ * so that ask() works through the relay just like with a single component. Acks are matched to
+ * forwarded messages in order per backend and space, so backends must answer under the address
+ * they are configured with. Addresses are compared after resolving their host names, where all
+ * addresses of this machine count as the same (so "127.0.0.1:55671" matches "localhost:55671",
+ * but not a backend that names itself by another port). Messages the backend does not answer are
+ * forgotten after the ack timeout. As acks do not say which message they answer, a backend that
+ * leaves some messages to a space unanswered (e.g. puts whose space returns nothing) but answers
+ * later ones to the same space causes those acks to be relayed to the authors of the unanswered
+ * messages until these expire. So spaces that are asked should answer every message, or the
+ * ack timeout should be short. Compressed messages are forwarded uncompressed. Messages to
+ * spaces no backend is configured for are processed by the relay itself, which only answers
+ * net.life (so it can be monitored via PeerHealth).
+ *
+ * Backends are reached via the pooled DEALER sockets and outbound queues of DaktylosContext.
+ * Unlike there, the outbound queues drop new messages when full by default, so that a backend
+ * that is down does not block forwarding to all others (cf. setOutboundQueues); messages that
+ * could not be forwarded are counted as dropped.
+ */
+public class HexameterRelay extends DaktylosContext {
+	
+	protected static class Pending {
+		protected String author;
+		protected long nanos;
+		
+		protected Pending(String author, long nanos) {
+			this.author = author;
+			this.nanos = nanos;
+		}
+	}
+	
+	protected SpaceTable<String[]> backends = new SpaceTable<String[]>();
+	protected String[] fallbackBackends = null;
+	// backend@space -> original authors of the messages forwarded there, oldest first
+	protected HashMap<String, ArrayDeque<Pending>> pendings = new HashMap<String, ArrayDeque<Pending>>();
+	protected HashMap<String, String> canonicals = new HashMap<String, String>();
+	protected long ackTimeout = TimeUnit.SECONDS.toNanos(10);
+	protected long lastSweep = System.nanoTime();
+	protected Envelope envelope = new Envelope();
+	protected MessageWriter forwardWriter = new MessageWriter();
+	protected MessageWriter plainWriter = new MessageWriter();
+	protected volatile boolean running = false;
+	
+	protected long forwarded = 0;
+	protected long acked = 0;
+	protected long orphaned = 0;
+	protected long expired = 0;
+	protected long dropped = 0;
+	protected long unroutable = 0;
+	protected long malformed = 0;
+	
+	public HexameterRelay() {
+		this.socketcache = 64;
+		this.defaultQueueSettings = new OutboundQueue(null, 1000, OutboundQueue.Policy.DROP_NEWEST, -1);
+	}
+	
+	/**
+	 * Forwards all messages to exactly the given space to (one of) the given backends.
+	 */
+	public HexameterRelay on(String space, String... backends) {
+		this.backends.put(space, backends);
+		return this;
+	}
+	
+	/**
+	 * Forwards all messages to spaces starting with prefix to (one of) the given backends. Longer
+	 * prefixes and exact rules take precedence.
+	 */
+	public HexameterRelay onPrefix(String prefix, String... backends) {
+		this.backends.putPrefix(prefix, backends);
+		return this;
+	}
+	
+	/**
+	 * Forwards all messages matching no other rule to (one of) the given backends.
+	 */
+	public HexameterRelay otherwise(String... backends) {
+		this.fallbackBackends = backends;
+		return this;
+	}
+	
+	/**
+	 * Sets the time after which an unanswered forwarded message is no longer waited for.
+	 */
+	public HexameterRelay setAckTimeout(long timeout, TimeUnit unit) {
+		this.ackTimeout = unit.toNanos(timeout);
+		return this;
+	}
+	
+	/**
+	 * Sets how many DEALER sockets to backends and authors are kept open.
+	 */
+	public HexameterRelay setPoolSize(int sockets) {
+		this.socketcache = sockets;
+		return this;
+	}
+	
+	public HexameterRelay init(String name) {
+		super.init(name, (type, author, space, parameter, recipient) -> {
+			return space.equals("net.life") ? parameter : null;
+		});
+		return this;
+	}
+	
+	/**
+	 * Returns the backend responsible for the given space (the shard responsible for it if the
+	 * backend is sharded), null if there is none.
+	 */
+	public String route(String space) {
+		String[] candidates = this.backends.get(space);
+		if ( candidates == null ) {
+			candidates = this.fallbackBackends;
+		}
+		if ( candidates == null || candidates.length == 0 ) {
+			return null;
+		}
+		String backend = candidates.length == 1 ? candidates[0] : candidates[shard(space, candidates.length)];
+		return this.resolve(backend, space);
+	}
+	
+	/**
+	 * Returns the form of the given address by which acks are matched: its host name resolved,
+	 * and "localhost" for all addresses of this machine. Resolved addresses are cached.
+	 */
+	protected String canonical(String address) {
+		String canonical = this.canonicals.get(address);
+		if ( canonical != null ) {
+			return canonical;
+		}
+		canonical = address;
+		int colon = address.lastIndexOf(':');
+		if ( colon > 0 ) {
+			try {
+				InetAddress host = InetAddress.getByName(address.substring(0, colon));
+				boolean local = host.isLoopbackAddress() || host.isAnyLocalAddress() || NetworkInterface.getByInetAddress(host) != null;
+				canonical = (local ? "localhost" : host.getHostAddress()) + address.substring(colon);
+			} catch ( Exception e ) {
+				// unknown hosts are compared as they are
+			}
+		}
+		this.canonicals.put(address, canonical);
+		return canonical;
+	}
+	
+	@Override
+	protected boolean handle(byte[] msg) {
+		if ( msg == null ) {
+			return false;
+		}
+		byte[] bytes = msg;
+		int length = msg.length;
+		if ( PayloadCompressor.isCompressed(msg, 0, msg.length) ) {
+			byte[] envelope = this.compressor.decompress(msg, 0, msg.length).getBytes(StandardCharsets.UTF_8);
+			this.plainWriter.reset().raw(MessageWriter.HEADER).raw(envelope, 0, envelope.length);
+			bytes = this.plainWriter.buffer();
+			length = this.plainWriter.length();
+		}
+		if ( !this.envelope.scan(bytes, 0, length) ) {
+			this.malformed++;
+			return true;
+		}
+		String space = this.envelope.getSpace();
+		String target;
+		ArrayDeque<Pending> pending = null;
+		if ( this.envelope.getType().equals("ack") ) {
+			target = this.origin(this.envelope.getAuthor(), space);
+			if ( target == null ) {
+				this.orphaned++;
+				return true;
+			}
+			this.acked++;
+		} else {
+			target = this.route(space);
+			if ( target == null ) {
+				if ( !space.equals("net.life") ) {
+					this.unroutable++;
+				}
+				return super.handle(msg);
+			}
+			this.sweep();
+			pending = this.pendings.computeIfAbsent(this.canonical(target) + "@" + space, (key) -> new ArrayDeque<Pending>());
+			pending.add(new Pending(this.envelope.getAuthor(), System.nanoTime()));
+			this.forwarded++;
+		}
+		MessageWriter writer = this.forwardWriter.reset();
+		writer.raw(bytes, 0, this.envelope.getAuthorStart());
+		writer.string(this.me());
+		writer.raw(bytes, this.envelope.getAuthorEnd(), length - this.envelope.getAuthorEnd());
+		boolean sent;
+		try {
+			sent = this.send(target, writer.buffer(), 0, writer.length());
+		} catch ( OutboundQueue.Overflow e ) {
+			sent = false;
+		}
+		if ( !sent ) {
+			this.dropped++;
+			if ( pending != null ) {
+				// the backend will not answer what it never got
+				pending.pollLast();
+				if ( pending.isEmpty() ) {
+					this.pendings.remove(this.canonical(target) + "@" + space);
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the original author of the oldest message forwarded to the given backend and space
+	 * which has not been answered yet.
+	 */
+	protected String origin(String backend, String space) {
+		backend = this.canonical(backend);
+		ArrayDeque<Pending> pending = this.pendings.get(backend + "@" + space);
+		if ( pending == null ) {
+			return null;
+		}
+		long now = System.nanoTime();
+		while ( !pending.isEmpty() && now - pending.peek().nanos > this.ackTimeout ) {
+			pending.poll();
+			this.expired++;
+		}
+		Pending oldest = pending.poll();
+		if ( pending.isEmpty() ) {
+			this.pendings.remove(backend + "@" + space);
+		}
+		return oldest == null ? null : oldest.author;
+	}
+	
+	/**
+	 * Forgets all forwarded messages that have not been answered within the ack timeout, so that
+	 * messages which are never answered do not pile up. Does so at most twice per ack timeout.
+	 */
+	protected void sweep() {
+		long now = System.nanoTime();
+		if ( now - this.lastSweep < this.ackTimeout / 2 ) {
+			return;
+		}
+		this.lastSweep = now;
+		Iterator<ArrayDeque<Pending>> iterator = this.pendings.values().iterator();
+		while ( iterator.hasNext() ) {
+			ArrayDeque<Pending> pending = iterator.next();
+			while ( !pending.isEmpty() && now - pending.peek().nanos > this.ackTimeout ) {
+				pending.poll();
+				this.expired++;
+			}
+			if ( pending.isEmpty() ) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Relays messages until stop() is called.
+	 */
+	public void run() {
+		this.running = true;
+		while ( this.running ) {
+			this.respondWithin(100);
+			this.sweep();
+		}
+	}
+	
+	public void stop() {
+		this.running = false;
+	}
+	
+	public long getForwarded() {
+		return this.forwarded;
+	}
+	
+	public long getAcked() {
+		return this.acked;
+	}
+	
+	/**
+	 * Returns the number of forwarded messages still waiting for an ack.
+	 */
+	public int getPending() {
+		int pending = 0;
+		for ( ArrayDeque<Pending> each : this.pendings.values() ) {
+			pending += each.size();
+		}
+		return pending;
+	}
+	
+	@Override
+	public String toString() {
+		return this.forwarded + " forwarded, " + this.acked + " acks relayed, " + this.orphaned + " orphaned acks, "
+				+ this.expired + " expired, " + this.dropped + " dropped, " + this.unroutable + " unroutable, " + this.malformed + " malformed";
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) {
+		String[] addresses = {"localhost:55671", "localhost:55672", "localhost:55673"};
+		for ( String address : addresses ) {
+			HexameterContext backend = new HexameterContext();
+			backend.init(address, () -> (type, author, space, parameter, recipient) -> {
+				JSONObject item = new JSONObject();
+				item.put("served", address);
+				JSONArray response = new JSONArray();
+				response.add(item);
+				return response;
+			});
+			Thread thread = new Thread(() -> {
+				while ( true ) {
+					backend.respond(0);
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+		HexameterRelay relay = new HexameterRelay()
+			.onPrefix("map.", addresses[0])
+			.onPrefix("agents.", addresses[1], addresses[2])
+			.init("localhost:55670");
+		Thread thread = new Thread(relay::run);
+		thread.setDaemon(true);
+		thread.start();
+		HexameterContext hx = new HexameterContext();
+		hx.init("localhost:55674");
+		JSONObject item = new JSONObject();
+		for ( String space : new String[] {"map.walls", "agents.a", "agents.b", "agents.c", "agents.d"} ) {
+			System.out.println(space + " -> " + hx.qry("localhost:55670", space, item));
+		}
+		System.out.println(hx.ask("get", "localhost:55670", "net.life", item));
+		System.out.println(relay);
+		relay.stop();
+		hx.term();
+	}
+}
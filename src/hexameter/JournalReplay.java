@@ -0,0 +1,80 @@
+package hexameter;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+
+
+/**
+ * JournalReplay feeds the inbound messages recorded in a MessageJournal (cf. JournalSphere) back
+ * into a HexameterContext via its process() method, i.e. without any network involved. It can
+ * do so as fast as possible or at the original timing of the recording and reports throughput
+ * and per-message processing latency. In timed mode, latency is measured from the moment the
+ * message was due according to the recording, so it includes any queueing delay.
+ * 
+ * Note that components which send ask()s to remote peers while processing a message still need
+ * those peers to be reachable during replay (e.g. a HadesStandIn instead of a real HADES).
+ */
+public class JournalReplay {
+
+	protected String path;
+	protected boolean timed = false;
+	
+	public JournalReplay(String path) {
+		this.path = path;
+	}
+	
+	public JournalReplay timed(boolean timed) {
+		this.timed = timed;
+		return this;
+	}
+	
+	public LatencyStats replay(HexameterContext hx) throws IOException {
+		MessageJournal journal = MessageJournal.open(this.path);
+		LatencyStats stats = new LatencyStats();
+		try {
+			long origin = -1;
+			MessageJournal.Entry entry;
+			while ( (entry = journal.next()) != null ) {
+				if ( entry.direction != MessageJournal.IN ) {
+					continue;
+				}
+				JSONArray parameter = (JSONArray) JSONValue.parse(entry.parameter);
+				long due = System.nanoTime();
+				if ( this.timed ) {
+					if ( origin < 0 ) {
+						origin = due - entry.nanos;
+					}
+					due = origin + entry.nanos;
+					long wait;
+					while ( (wait = due - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted() ) {
+						LockSupport.parkNanos(wait);
+					}
+				} else if ( stats.count() == 0 ) {
+					stats.start();
+				}
+				hx.process(entry.type, entry.author, entry.space, parameter, hx.me());
+				stats.record(System.nanoTime() - due);
+			}
+		} finally {
+			journal.close();
+		}
+		stats.stop();
+		return stats;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if ( args.length < 1 ) {
+			System.out.println("usage: JournalReplay <journal> [fast|timed] [address]");
+			return;
+		}
+		boolean timed = args.length >= 2 && args[1].equals("timed");
+		String address = args.length >= 3 ? args[2] : "localhost:44444";
+		HexameterContext hx = new HexameterContext();
+		hx.init(address, SpondeiosContext.TrivialSpace);
+		LatencyStats stats = new JournalReplay(args[0]).timed(timed).replay(hx);
+		System.out.println("**  Replayed " + stats.summary("messages"));
+		hx.term();
+	}
+}
@@ -0,0 +1,140 @@
+package hexameter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * JournalSphere records every message passing through it, inbound and outbound, into a
+ * MessageJournal file. The processing thread only takes a timestamp and hands the message over
+ * to a bounded queue; encoding and writing happen on a background thread. If the queue is full,
+ * the message is not recorded (and counted as dropped) rather than blocking the processing
+ * thread.
+ * 
+ * To record traffic as seen on the wire, put the JournalSphere last in the spheres array given
+ * to HexameterContext.init, e.g. {NetworkingSphere, journalSphere}. Note that the parameters
+ * are encoded asynchronously, so components should not modify a parameter after sending it.
+ * Journals can be fed back into a HexameterContext via JournalReplay.
+ */
+public class JournalSphere implements Sphere {
+
+	protected static class Record {
+		protected long nanos;
+		protected byte direction;
+		protected String type;
+		protected String author;
+		protected String space;
+		protected String recipient;
+		protected Object parameter;
+	}
+	
+	protected MessageJournal journal;
+	protected ArrayBlockingQueue<Record> queue;
+	protected Thread writer;
+	protected volatile boolean running = true;
+	protected long origin;
+	protected AtomicLong recorded = new AtomicLong();
+	protected AtomicLong dropped = new AtomicLong();
+	protected volatile IOException failure = null;
+	
+	public JournalSphere(String path, int capacity) throws IOException {
+		this.journal = MessageJournal.create(path);
+		this.queue = new ArrayBlockingQueue<Record>(capacity);
+		this.origin = System.nanoTime();
+		this.writer = new Thread(this::drain, "hexameter-journal");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+	
+	public JournalSphere(String path) throws IOException {
+		this(path, 65536);
+	}
+	
+	protected void drain() {
+		ArrayList<Record> batch = new ArrayList<Record>();
+		try {
+			while ( this.running || !this.queue.isEmpty() ) {
+				Record first = this.queue.poll(10, TimeUnit.MILLISECONDS);
+				if ( first == null ) {
+					continue;
+				}
+				batch.add(first);
+				this.queue.drainTo(batch);
+				for ( Record record : batch ) {
+					this.journal.append(
+							record.nanos,
+							this.origin,
+							record.direction,
+							record.type,
+							record.author,
+							record.space,
+							record.recipient,
+							record.parameter == null ? null : record.parameter.toString()
+					);
+					this.recorded.incrementAndGet();
+				}
+				batch.clear();
+			}
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		} catch ( IOException e ) {
+			this.failure = e;
+		}
+	}
+	
+	protected void offer(byte direction, String type, String author, String space, Object parameter, String recipient) {
+		Record record = new Record();
+		record.nanos = System.nanoTime();
+		record.direction = direction;
+		record.type = type;
+		record.author = author;
+		record.space = space;
+		record.recipient = recipient;
+		record.parameter = parameter;
+		if ( !this.running || !this.queue.offer(record) ) {
+			this.dropped.incrementAndGet();
+		}
+	}
+	
+	@Override
+	public MessageProcessor build(MessageProcessor continuation, String direction) {
+		if ( direction.equals("in") ) {
+			return (type, author, space, parameter, recipient) -> {
+				this.offer(MessageJournal.IN, type, author, space, parameter, recipient);
+				return continuation.process(type, author, space, parameter, recipient);
+			};
+		} else {
+			return (type, recipient, space, parameter, author) -> {
+				this.offer(MessageJournal.OUT, type, author, space, parameter, recipient);
+				return continuation.process(type, recipient, space, parameter, author);
+			};
+		}
+	}
+	
+	public long getRecorded() {
+		return this.recorded.get();
+	}
+	
+	public long getDropped() {
+		return this.dropped.get();
+	}
+	
+	/**
+	 * Writes all pending messages and closes the journal file. Messages arriving afterwards are
+	 * counted as dropped.
+	 */
+	public void close() throws IOException {
+		this.running = false;
+		try {
+			this.writer.join();
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		this.journal.close();
+		if ( this.failure != null ) {
+			throw this.failure;
+		}
+	}
+}
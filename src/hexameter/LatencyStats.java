@@ -0,0 +1,89 @@
+package hexameter;
+import java.util.Arrays;
+
+
+/**
+ * LatencyStats collects duration samples (in nanoseconds) and reports counts, throughput and
+ * percentiles. It is used by the benchmarking tools of this project. Recording a sample is
+ * cheap (an array store); percentiles are computed on demand by sorting a copy of the samples.
+ * This class is not thread-safe.
+ */
+public class LatencyStats {
+
+	protected long[] samples = new long[1024];
+	protected int count = 0;
+	protected long started = System.nanoTime();
+	protected long stopped = -1;
+	
+	public void record(long nanos) {
+		if ( this.count == this.samples.length ) {
+			this.samples = Arrays.copyOf(this.samples, this.samples.length * 2);
+		}
+		this.samples[this.count++] = nanos;
+	}
+	
+	public void start() {
+		this.started = System.nanoTime();
+		this.stopped = -1;
+	}
+	
+	public void stop() {
+		this.stopped = System.nanoTime();
+	}
+	
+	public void reset() {
+		this.count = 0;
+		this.start();
+	}
+	
+	public int count() {
+		return this.count;
+	}
+	
+	public double elapsedSeconds() {
+		long end = this.stopped >= 0 ? this.stopped : System.nanoTime();
+		return (end - this.started) / 1e9;
+	}
+	
+	public double perSecond() {
+		double seconds = this.elapsedSeconds();
+		return seconds > 0 ? this.count / seconds : 0;
+	}
+	
+	/**
+	 * Returns the sample at the given percentile (0 to 100) in nanoseconds, or 0 if there are
+	 * no samples yet.
+	 */
+	public long percentile(double percentile) {
+		if ( this.count == 0 ) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(this.samples, this.count);
+		Arrays.sort(sorted);
+		return pick(sorted, percentile);
+	}
+	
+	public String summary(String unit) {
+		if ( this.count == 0 ) {
+			return "no samples";
+		}
+		long[] sorted = Arrays.copyOf(this.samples, this.count);
+		Arrays.sort(sorted);
+		return String.format(
+				"%d %s in %.3fs (%.1f/s), latency p50 %.3fms p90 %.3fms p99 %.3fms max %.3fms",
+				this.count,
+				unit,
+				this.elapsedSeconds(),
+				this.perSecond(),
+				pick(sorted, 50) / 1e6,
+				pick(sorted, 90) / 1e6,
+				pick(sorted, 99) / 1e6,
+				sorted[sorted.length - 1] / 1e6
+		);
+	}
+	
+	protected static long pick(long[] sorted, double percentile) {
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+}
@@ -0,0 +1,241 @@
+package hexameter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.simple.*;
+
+
+/**
+ * LoggingSphere logs the messages passing through it, like SpondeiosContext.VerboseSphere, but
+ * without slowing down message processing: The processing thread only stores a reference to the
+ * message in a preallocated, lock-free ring buffer; formatting and writing happen on a
+ * background thread. If the ring buffer is full, the message is not logged (and counted as
+ * dropped) rather than blocking the processing thread.
+ *
+ * To keep the log small enough to stay on in production, messages can be sampled (only every
+ * n-th message on average is logged) with different rates per space or space prefix, and
+ * payloads can be truncated to a maximum length (or left out). Configure the sphere before
+ * using it in HexameterContext.init. As with JournalSphere, parameters are formatted
+ * asynchronously, so components should not modify a parameter after sending it.
+ */
+public class LoggingSphere implements Sphere {
+	
+	protected static class Event {
+		protected long nanos;
+		protected boolean inbound;
+		protected String type;
+		protected String peer;
+		protected String space;
+		protected JSONArray parameter;
+	}
+	
+	protected Event[] events;
+	// sequences[i] == n means slot i is free for the n-th event, == n + 1 means it holds the n-th event
+	protected AtomicLongArray sequences;
+	protected int mask;
+	protected AtomicLong tail = new AtomicLong();
+	protected long head = 0;
+	
+	protected int sampling = 1;
+	protected SpaceTable<Integer> samplings = new SpaceTable<Integer>();
+	protected int truncate = 200;
+	
+	protected Writer out;
+	protected boolean owned = false;
+	protected Thread drainer;
+	protected volatile boolean running = true;
+	protected long origin = System.nanoTime();
+	protected AtomicLong logged = new AtomicLong();
+	protected AtomicLong dropped = new AtomicLong();
+	protected volatile IOException failure = null;
+	
+	/**
+	 * @param out where to write the log to, one line per message; it is flushed but not closed
+	 *        by close()
+	 * @param capacity size of the ring buffer, rounded up to a power of 2
+	 */
+	public LoggingSphere(Writer out, int capacity) {
+		int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		this.events = new Event[size];
+		this.sequences = new AtomicLongArray(size);
+		for ( int i = 0; i < size; i++ ) {
+			this.events[i] = new Event();
+			this.sequences.set(i, i);
+		}
+		this.mask = size - 1;
+		this.out = out;
+		this.drainer = new Thread(this::drain, "hexameter-log");
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+	
+	public LoggingSphere(String path) throws IOException {
+		this(new FileWriter(path, true), 65536);
+		this.owned = true;
+	}
+	
+	/**
+	 * Creates a LoggingSphere writing to the standard output.
+	 */
+	public LoggingSphere() {
+		this(new OutputStreamWriter(System.out), 65536);
+	}
+	
+	/**
+	 * Logs only every n-th message on average (every message for n = 1, none for n = 0), unless
+	 * another rate is set for its space.
+	 */
+	public LoggingSphere sample(int n) {
+		this.sampling = n;
+		return this;
+	}
+	
+	/**
+	 * Logs only every n-th message to the given space on average, none for n = 0.
+	 */
+	public LoggingSphere sample(String space, int n) {
+		this.samplings.put(space, n);
+		return this;
+	}
+	
+	/**
+	 * Logs only every n-th message to spaces starting with prefix on average, none for n = 0.
+	 */
+	public LoggingSphere samplePrefix(String prefix, int n) {
+		this.samplings.putPrefix(prefix, n);
+		return this;
+	}
+	
+	/**
+	 * Limits the logged parameters to the given number of characters; 0 leaves them out.
+	 */
+	public LoggingSphere truncate(int characters) {
+		this.truncate = characters;
+		return this;
+	}
+	
+	protected boolean sampled(String space) {
+		Integer rate = this.samplings.get(space);
+		int n = rate != null ? rate : this.sampling;
+		return n == 1 || (n > 1 && ThreadLocalRandom.current().nextInt(n) == 0);
+	}
+	
+	protected void offer(boolean inbound, String type, String peer, String space, JSONArray parameter) {
+		if ( !this.sampled(space) ) {
+			return;
+		}
+		long nanos = System.nanoTime();
+		while ( true ) {
+			long ticket = this.tail.get();
+			int slot = (int) ticket & this.mask;
+			long sequence = this.sequences.get(slot);
+			if ( sequence < ticket || !this.running ) {
+				this.dropped.incrementAndGet();
+				return;
+			}
+			if ( sequence == ticket && this.tail.compareAndSet(ticket, ticket + 1) ) {
+				Event event = this.events[slot];
+				event.nanos = nanos;
+				event.inbound = inbound;
+				event.type = type;
+				event.peer = peer;
+				event.space = space;
+				event.parameter = this.truncate > 0 ? parameter : null;
+				this.sequences.set(slot, ticket + 1);
+				return;
+			}
+		}
+	}
+	
+	protected void drain() {
+		StringBuilder line = new StringBuilder();
+		try {
+			boolean flushed = true;
+			while ( this.running || this.head != this.tail.get() ) {
+				int slot = (int) this.head & this.mask;
+				if ( this.sequences.get(slot) != this.head + 1 ) {
+					if ( !flushed ) {
+						this.out.flush();
+						flushed = true;
+					}
+					LockSupport.parkNanos(1000000);
+					continue;
+				}
+				Event event = this.events[slot];
+				line.setLength(0);
+				line.append(String.format("%.6f", (event.nanos - this.origin) / 1e9));
+				line.append(event.inbound ? " [recv " : " [send ").append(event.type).append("] ");
+				line.append(event.space).append(event.inbound ? " from " : " to ").append(event.peer);
+				if ( event.parameter != null ) {
+					String payload = event.parameter.toString();
+					line.append(' ');
+					if ( payload.length() > this.truncate ) {
+						line.append(payload, 0, this.truncate).append("...");
+					} else {
+						line.append(payload);
+					}
+				}
+				line.append('\n');
+				event.parameter = null;
+				this.sequences.set(slot, this.head + this.events.length);
+				this.head++;
+				this.out.append(line);
+				this.logged.incrementAndGet();
+				flushed = false;
+			}
+			this.out.flush();
+		} catch ( IOException e ) {
+			this.failure = e;
+		}
+	}
+	
+	@Override
+	public MessageProcessor build(MessageProcessor continuation, String direction) {
+		if ( direction.equals("in") ) {
+			return (type, author, space, parameter, recipient) -> {
+				this.offer(true, type, author, space, parameter);
+				return continuation.process(type, author, space, parameter, recipient);
+			};
+		} else {
+			return (type, recipient, space, parameter, author) -> {
+				this.offer(false, type, recipient, space, parameter);
+				return continuation.process(type, recipient, space, parameter, author);
+			};
+		}
+	}
+	
+	public long getLogged() {
+		return this.logged.get();
+	}
+	
+	public long getDropped() {
+		return this.dropped.get();
+	}
+	
+	/**
+	 * Writes all pending messages and closes the log. Messages arriving afterwards are counted as
+	 * dropped.
+	 */
+	public void close() throws IOException {
+		this.running = false;
+		try {
+			this.drainer.join();
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		if ( this.owned ) {
+			this.out.close();
+		} else {
+			this.out.flush();
+		}
+		if ( this.failure != null ) {
+			throw this.failure;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package hexameter;
+import org.json.simple.JSONArray;
+
+
+/**
+ * Message holds one received Hexameter message, as delivered by a MessageStream. The fields are
+ * the same as the parameters of MessageProcessor.process.
+ */
+public class Message {
+	
+	protected String type;
+	protected String author;
+	protected String space;
+	protected JSONArray parameter;
+	protected String recipient;
+	protected long received;
+	
+	public Message(String type, String author, String space, JSONArray parameter, String recipient) {
+		this.type = type;
+		this.author = author;
+		this.space = space;
+		this.parameter = parameter;
+		this.recipient = recipient;
+		this.received = System.currentTimeMillis();
+	}
+	
+	public String getType() {
+		return this.type;
+	}
+	
+	public String getAuthor() {
+		return this.author;
+	}
+	
+	public String getSpace() {
+		return this.space;
+	}
+	
+	public JSONArray getParameter() {
+		return this.parameter;
+	}
+	
+	public String getRecipient() {
+		return this.recipient;
+	}
+	
+	/**
+	 * Returns the time (in ms since the epoch) this message was received.
+	 */
+	public long getReceived() {
+		return this.received;
+	}
+	
+	@Override
+	public String toString() {
+		return this.type + "@" + this.space + " from " + this.author + ": " + this.parameter;
+	}
+}
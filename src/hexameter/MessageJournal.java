@@ -0,0 +1,207 @@
+package hexameter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * MessageJournal is a compact, append-only binary log of Hexameter messages backed by a
+ * memory-mapped file. It is written by the JournalSphere and read back by the JournalReplay
+ * driver. The file layout is:
+ * 
+ * <pre>
+ * header:  "HXJ1" (4 bytes), wall clock at creation in ms (8 bytes)
+ * record:  length of the rest of the record (4 bytes),
+ *          nanoseconds since journal creation (8 bytes),
+ *          direction, 0 for "in" and 1 for "out" (1 byte),
+ *          type, author, space, recipient (each: length (4 bytes) + UTF-8, length -1 for null),
+ *          parameter as JSON (length (4 bytes) + UTF-8)
+ * </pre>
+ * 
+ * A journal is written by exactly one thread; MessageJournal does no locking on its own.
+ */
+public class MessageJournal {
+
+	public static final byte IN = 0;
+	public static final byte OUT = 1;
+	
+	protected static final byte[] MAGIC = {'H', 'X', 'J', '1'};
+	protected static final int HEADER = 12;
+	protected static final long CHUNK = 16L * 1024 * 1024;
+	
+	/**
+	 * One journaled message.
+	 */
+	public static class Entry {
+		public long nanos;
+		public byte direction;
+		public String type;
+		public String author;
+		public String space;
+		public String recipient;
+		public String parameter;
+		
+		public String getDirection() {
+			return this.direction == IN ? "in" : "out";
+		}
+	}
+	
+	protected RandomAccessFile file;
+	protected FileChannel channel;
+	protected MappedByteBuffer buffer;
+	protected long bufferStart;
+	protected long position;
+	protected long created;
+	protected boolean writable;
+	
+	protected MessageJournal(String path, boolean writable) throws IOException {
+		this.writable = writable;
+		this.file = new RandomAccessFile(path, writable ? "rw" : "r");
+		this.channel = this.file.getChannel();
+	}
+	
+	/**
+	 * Creates a new journal at the given path, overwriting existing files.
+	 */
+	public static MessageJournal create(String path) throws IOException {
+		MessageJournal journal = new MessageJournal(path, true);
+		journal.file.setLength(0);
+		journal.created = System.currentTimeMillis();
+		journal.map(0, HEADER);
+		journal.buffer.put(MAGIC);
+		journal.buffer.putLong(journal.created);
+		journal.position = HEADER;
+		return journal;
+	}
+	
+	/**
+	 * Opens an existing journal for reading.
+	 */
+	public static MessageJournal open(String path) throws IOException {
+		MessageJournal journal = new MessageJournal(path, false);
+		journal.map(0, HEADER);
+		byte[] magic = new byte[MAGIC.length];
+		journal.buffer.get(magic);
+		for ( int i = 0; i < MAGIC.length; i++ ) {
+			if ( magic[i] != MAGIC[i] ) {
+				journal.close();
+				throw new IOException("not a Hexameter message journal: " + path);
+			}
+		}
+		journal.created = journal.buffer.getLong();
+		journal.position = HEADER;
+		return journal;
+	}
+	
+	public long getCreated() {
+		return this.created;
+	}
+	
+	public long size() {
+		return this.position;
+	}
+	
+	protected void map(long start, long required) throws IOException {
+		long length = this.writable ? Math.max(CHUNK, required) : Math.min(Math.max(CHUNK, required), this.channel.size() - start);
+		this.buffer = this.channel.map(this.writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, start, length);
+		this.bufferStart = start;
+	}
+	
+	protected void ensure(long required) throws IOException {
+		long offset = this.position - this.bufferStart;
+		if ( this.buffer == null || offset + required > this.buffer.capacity() ) {
+			this.map(this.position, required);
+		} else {
+			this.buffer.position((int) offset);
+		}
+	}
+	
+	protected static byte[] encode(String string) {
+		return string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	protected static int sizeOf(byte[] bytes) {
+		return 4 + (bytes == null ? 0 : bytes.length);
+	}
+	
+	protected void putBytes(byte[] bytes) {
+		if ( bytes == null ) {
+			this.buffer.putInt(-1);
+		} else {
+			this.buffer.putInt(bytes.length);
+			this.buffer.put(bytes);
+		}
+	}
+	
+	protected String getString() {
+		int length = this.buffer.getInt();
+		if ( length < 0 ) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		this.buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Appends one message to the journal.
+	 * 
+	 * @param nanos the System.nanoTime() the message was seen at
+	 * @param origin the System.nanoTime() corresponding to the start of the recording
+	 */
+	public void append(long nanos, long origin, byte direction, String type, String author, String space, String recipient, String parameter) throws IOException {
+		byte[] typeBytes = encode(type);
+		byte[] authorBytes = encode(author);
+		byte[] spaceBytes = encode(space);
+		byte[] recipientBytes = encode(recipient);
+		byte[] parameterBytes = encode(parameter);
+		int length = 8 + 1 + sizeOf(typeBytes) + sizeOf(authorBytes) + sizeOf(spaceBytes) + sizeOf(recipientBytes) + sizeOf(parameterBytes);
+		this.ensure(4 + length);
+		this.buffer.putInt(length);
+		this.buffer.putLong(nanos - origin);
+		this.buffer.put(direction);
+		this.putBytes(typeBytes);
+		this.putBytes(authorBytes);
+		this.putBytes(spaceBytes);
+		this.putBytes(recipientBytes);
+		this.putBytes(parameterBytes);
+		this.position += 4 + length;
+	}
+	
+	/**
+	 * Reads the next message from a journal opened via open(), or returns null at the end.
+	 */
+	public Entry next() throws IOException {
+		if ( this.position + 4 > this.channel.size() ) {
+			return null;
+		}
+		this.ensure(4);
+		int length = this.buffer.getInt();
+		if ( length <= 0 ) {
+			return null;
+		}
+		this.ensure(4 + length);
+		this.buffer.getInt();
+		Entry entry = new Entry();
+		entry.nanos = this.buffer.getLong();
+		entry.direction = this.buffer.get();
+		entry.type = this.getString();
+		entry.author = this.getString();
+		entry.space = this.getString();
+		entry.recipient = this.getString();
+		entry.parameter = this.getString();
+		this.position += 4 + length;
+		return entry;
+	}
+	
+	public void close() throws IOException {
+		this.buffer = null;
+		if ( this.writable ) {
+			this.channel.truncate(this.position);
+		}
+		this.channel.close();
+		this.file.close();
+	}
+}
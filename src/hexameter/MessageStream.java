@@ -0,0 +1,516 @@
+package hexameter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.simple.*;
+
+
+/**
+ * MessageStream publishes the messages received for a space (or space prefix) to a Subscriber,
+ * cf. HexameterContext.stream. Messages are passed on only as far as the Subscriber requested
+ * them; the others wait in a buffer of fixed capacity. While the buffer is full, the stream is
+ * saturated and HexameterContext.respond() receives no further messages, so they pile up in
+ * the socket and eventually in the outbound queues of their senders instead (cf. OutboundQueue).
+ * A slow consumer thus slows down receiving rather than making buffers grow without bound.
+ *
+ * Messages are passed on to the Subscriber on the thread calling respond() or on the thread
+ * calling request(), but never concurrently. Each stream accepts one Subscriber (further ones
+ * receive an error); batch() and window() return Publishers of lists of messages for consumers
+ * who rather process messages in bulk, e.g. to write them to storage.
+ *
+ * Messages delivered to a stream are not answered.
+ */
+public class MessageStream implements MessageProcessor, Flow.Publisher<Message> {
+	
+	protected static ScheduledExecutorService timer = null;
+	
+	protected String name;
+	protected int capacity;
+	protected ArrayDeque<Message> buffer = new ArrayDeque<Message>();
+	protected Flow.Subscriber<? super Message> subscriber = null;
+	protected long requested = 0;
+	protected boolean cancelled = false;
+	protected boolean completed = false;
+	protected boolean done = false;
+	protected AtomicInteger drains = new AtomicInteger();
+	protected long received = 0;
+	protected long delivered = 0;
+	protected long dropped = 0;
+	protected int maxDepth = 0;
+	
+	public MessageStream(String name, int capacity) {
+		this.name = name;
+		this.capacity = Math.max(1, capacity);
+	}
+	
+	/**
+	 * Takes a received message and returns null, i.e. the message is not answered.
+	 */
+	@Override
+	public JSONArray process(String type, String author, String space, JSONArray parameter, String recipient) {
+		this.offer(new Message(type, author, space, parameter, recipient));
+		return null;
+	}
+	
+	/**
+	 * Adds a message to the stream. Messages are never dropped for lack of capacity (the buffer
+	 * may exceed its capacity by one message per thread receiving concurrently), only once the
+	 * Subscriber cancelled its subscription. Returns false if the message has been dropped.
+	 */
+	public boolean offer(Message message) {
+		synchronized ( this ) {
+			if ( this.cancelled || this.completed ) {
+				this.dropped++;
+				return false;
+			}
+			this.buffer.add(message);
+			this.received++;
+			this.maxDepth = Math.max(this.maxDepth, this.buffer.size());
+		}
+		this.drain();
+		return true;
+	}
+	
+	/**
+	 * Ends the stream: the Subscriber is completed once it has received all buffered messages.
+	 */
+	public void complete() {
+		synchronized ( this ) {
+			this.completed = true;
+			this.notifyAll();
+		}
+		this.drain();
+	}
+	
+	@Override
+	public void subscribe(Flow.Subscriber<? super Message> subscriber) {
+		synchronized ( this ) {
+			if ( this.subscriber == null ) {
+				this.subscriber = subscriber;
+				subscriber = null;
+			}
+		}
+		if ( subscriber != null ) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+				}
+				
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("stream " + this.name + " already has a subscriber"));
+			return;
+		}
+		this.subscriber.onSubscribe(new Flow.Subscription() {
+			public void request(long n) {
+				MessageStream.this.request(n);
+			}
+			
+			public void cancel() {
+				MessageStream.this.cancel();
+			}
+		});
+		this.drain();
+	}
+	
+	protected void request(long n) {
+		if ( n <= 0 ) {
+			synchronized ( this ) {
+				this.cancelled = true;
+				this.buffer.clear();
+				this.notifyAll();
+			}
+			this.subscriber.onError(new IllegalArgumentException("requested " + n + " messages"));
+			return;
+		}
+		synchronized ( this ) {
+			this.requested = this.requested + n < 0 ? Long.MAX_VALUE : this.requested + n;
+		}
+		this.drain();
+	}
+	
+	protected void cancel() {
+		synchronized ( this ) {
+			this.cancelled = true;
+			this.dropped += this.buffer.size();
+			this.buffer.clear();
+			this.notifyAll();
+		}
+	}
+	
+	/**
+	 * Passes buffered messages on to the Subscriber as far as it requested them. Only one thread
+	 * does so at a time; threads arriving meanwhile leave their work to that thread.
+	 */
+	protected void drain() {
+		if ( this.drains.getAndIncrement() != 0 ) {
+			return;
+		}
+		do {
+			while ( true ) {
+				Message message;
+				boolean finish = false;
+				synchronized ( this ) {
+					if ( this.subscriber == null || this.cancelled || this.done ) {
+						break;
+					}
+					if ( this.buffer.isEmpty() ) {
+						if ( this.completed ) {
+							this.done = finish = true;
+						}
+						message = null;
+					} else if ( this.requested > 0 ) {
+						message = this.buffer.poll();
+						if ( this.requested != Long.MAX_VALUE ) {
+							this.requested--;
+						}
+						this.delivered++;
+						this.notifyAll();
+					} else {
+						break;
+					}
+				}
+				if ( finish ) {
+					this.subscriber.onComplete();
+					break;
+				}
+				if ( message == null ) {
+					break;
+				}
+				this.subscriber.onNext(message);
+			}
+		} while ( this.drains.decrementAndGet() != 0 );
+	}
+	
+	/**
+	 * Returns true if the buffer is full, i.e. no further messages should be received for now.
+	 * Cancelled and completed streams are never saturated, as they take no further messages.
+	 */
+	public synchronized boolean isSaturated() {
+		return !this.cancelled && !this.completed && this.buffer.size() >= this.capacity;
+	}
+	
+	/**
+	 * Waits until the stream is no longer saturated, for at most timeout ms (forever if
+	 * negative). Returns false if it still is.
+	 */
+	public synchronized boolean awaitCapacity(long timeout) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while ( this.isSaturated() ) {
+			try {
+				if ( timeout < 0 ) {
+					this.wait();
+				} else {
+					long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if ( left <= 0 ) {
+						return false;
+					}
+					this.wait(left);
+				}
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public String getName() {
+		return this.name;
+	}
+	
+	public int getCapacity() {
+		return this.capacity;
+	}
+	
+	public synchronized int getDepth() {
+		return this.buffer.size();
+	}
+	
+	public synchronized int getMaxDepth() {
+		return this.maxDepth;
+	}
+	
+	public synchronized long getReceived() {
+		return this.received;
+	}
+	
+	public synchronized long getDelivered() {
+		return this.delivered;
+	}
+	
+	public synchronized long getDropped() {
+		return this.dropped;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "stream " + this.name + ": " + this.received + " received, " + this.delivered + " delivered, "
+				+ this.dropped + " dropped, depth " + this.buffer.size() + " (max " + this.maxDepth + ") of " + this.capacity;
+	}
+	
+	/**
+	 * Returns a Publisher of lists of up to size messages. A list is published once it is full or
+	 * timeout ms after its first message arrived, whichever comes first.
+	 */
+	public Flow.Publisher<List<Message>> batch(int size, long timeout) {
+		return batch(this, size, timeout, false);
+	}
+	
+	/**
+	 * Returns a Publisher of the lists of messages received within consecutive windows of the
+	 * given duration (in ms). Windows without messages are skipped.
+	 */
+	public Flow.Publisher<List<Message>> window(long duration) {
+		return batch(this, Integer.MAX_VALUE, duration, true);
+	}
+	
+	public static Flow.Publisher<List<Message>> batch(Flow.Publisher<Message> upstream, int size, long timeout, boolean aligned) {
+		return (subscriber) -> new Batching(subscriber, Math.max(1, size), timeout, aligned).subscribeTo(upstream);
+	}
+	
+	protected static synchronized ScheduledExecutorService timer() {
+		if ( timer == null ) {
+			timer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+				Thread thread = new Thread(runnable, "hexameter-stream-timer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return timer;
+	}
+	
+	/**
+	 * Collects messages into lists for batch() and window(). Messages are requested from upstream
+	 * one at a time, and only while the current list is not ready to be published or the
+	 * downstream Subscriber has requested lists, so a consumer not requesting lists eventually
+	 * saturates the stream upstream.
+	 */
+	protected static class Batching implements Flow.Subscriber<Message>, Flow.Subscription {
+		protected Flow.Subscriber<? super List<Message>> downstream;
+		protected Flow.Subscription upstream;
+		protected int size;
+		protected long timeout;
+		protected boolean aligned;
+		protected ArrayList<Message> batch = new ArrayList<Message>();
+		protected boolean ready = false;
+		protected long requested = 0;
+		protected boolean pending = false;
+		protected boolean completed = false;
+		protected boolean cancelled = false;
+		protected ScheduledFuture<?> timer = null;
+		
+		protected Batching(Flow.Subscriber<? super List<Message>> downstream, int size, long timeout, boolean aligned) {
+			this.downstream = downstream;
+			this.size = size;
+			this.timeout = timeout;
+			this.aligned = aligned;
+		}
+		
+		protected void subscribeTo(Flow.Publisher<Message> upstream) {
+			upstream.subscribe(this);
+		}
+		
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.upstream = subscription;
+			if ( this.aligned && this.timeout > 0 ) {
+				this.timer = timer().scheduleAtFixedRate(this::expire, this.timeout, this.timeout, TimeUnit.MILLISECONDS);
+			}
+			this.downstream.onSubscribe(this);
+			this.fetch();
+		}
+		
+		@Override
+		public void onNext(Message message) {
+			synchronized ( this ) {
+				this.pending = false;
+				if ( this.batch.isEmpty() && !this.aligned && this.timeout > 0 ) {
+					ArrayList<Message> batch = this.batch;
+					this.timer = timer().schedule(() -> this.expire(batch), this.timeout, TimeUnit.MILLISECONDS);
+				}
+				this.batch.add(message);
+				if ( this.batch.size() >= this.size ) {
+					this.ready = true;
+				}
+				this.emit();
+			}
+			this.fetch();
+		}
+		
+		@Override
+		public void onError(Throwable throwable) {
+			this.stopTimer();
+			this.downstream.onError(throwable);
+		}
+		
+		@Override
+		public void onComplete() {
+			synchronized ( this ) {
+				this.completed = true;
+				this.ready = !this.batch.isEmpty();
+				this.emit();
+			}
+		}
+		
+		@Override
+		public void request(long n) {
+			if ( n <= 0 ) {
+				this.cancel();
+				this.downstream.onError(new IllegalArgumentException("requested " + n + " batches"));
+				return;
+			}
+			synchronized ( this ) {
+				this.requested = this.requested + n < 0 ? Long.MAX_VALUE : this.requested + n;
+				this.emit();
+			}
+			this.fetch();
+		}
+		
+		@Override
+		public void cancel() {
+			synchronized ( this ) {
+				this.cancelled = true;
+			}
+			this.stopTimer();
+			this.upstream.cancel();
+		}
+		
+		protected synchronized void expire() {
+			if ( !this.batch.isEmpty() ) {
+				this.ready = true;
+				this.emit();
+			}
+		}
+		
+		protected synchronized void expire(ArrayList<Message> batch) {
+			if ( batch == this.batch ) {
+				this.ready = true;
+				this.emit();
+			}
+		}
+		
+		/**
+		 * Publishes the current list if it is ready and has been requested (called holding the
+		 * lock, which keeps the calls to the downstream Subscriber from overlapping).
+		 */
+		protected void emit() {
+			if ( this.cancelled ) {
+				return;
+			}
+			if ( this.ready && this.requested > 0 ) {
+				List<Message> batch = this.batch;
+				this.batch = new ArrayList<Message>();
+				this.ready = false;
+				if ( this.requested != Long.MAX_VALUE ) {
+					this.requested--;
+				}
+				if ( this.timer != null && !this.aligned ) {
+					this.timer.cancel(false);
+					this.timer = null;
+				}
+				this.downstream.onNext(batch);
+			}
+			// onNext may have completed the stream already via a nested call
+			if ( !this.cancelled && this.completed && this.batch.isEmpty() ) {
+				this.cancelled = true;
+				this.stopTimer();
+				this.downstream.onComplete();
+			}
+		}
+		
+		/**
+		 * Requests the next message from upstream unless one is requested already or the current
+		 * list is ready but not requested downstream.
+		 */
+		protected void fetch() {
+			synchronized ( this ) {
+				if ( this.pending || this.cancelled || this.completed || (this.ready && this.requested == 0) ) {
+					return;
+				}
+				this.pending = true;
+			}
+			this.upstream.request(1);
+		}
+		
+		protected void stopTimer() {
+			ScheduledFuture<?> timer = this.timer;
+			if ( timer != null ) {
+				timer.cancel(false);
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) {
+		HexameterContext server = new HexameterContext();
+		server.init("localhost:55691");
+		MessageStream sensors = server.streamPrefix("sensors.", 200);
+		long[] stored = {0, 0};
+		ExecutorService storage = Executors.newSingleThreadExecutor();
+		sensors.batch(100, 50).subscribe(new Flow.Subscriber<List<Message>>() {
+			Flow.Subscription subscription;
+			
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(1);
+			}
+			
+			public void onNext(List<Message> batch) {
+				storage.execute(() -> {
+					LockSupport.parkNanos(20000000); // writing a batch to storage takes 20ms
+					stored[0] += batch.size();
+					stored[1]++;
+					this.subscription.request(1);
+				});
+			}
+			
+			public void onError(Throwable throwable) {
+				throwable.printStackTrace();
+			}
+			
+			public void onComplete() {
+				storage.execute(() -> {
+					System.out.println("stored " + stored[0] + " messages in " + stored[1] + " batches");
+				});
+				storage.shutdown();
+			}
+		});
+		Thread thread = new Thread(() -> {
+			while ( true ) {
+				server.respond(0);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		HexameterContext client = new HexameterContext();
+		client.init("localhost:55692");
+		long started = System.nanoTime();
+		for ( int i = 0; i < 3000; i++ ) {
+			JSONObject item = new JSONObject();
+			item.put("value", i);
+			client.tell("put", "localhost:55691", "sensors." + (i % 4), item);
+		}
+		System.out.printf("sent 3000 messages in %.3fs%n", (System.nanoTime() - started) / 1e9);
+		while ( sensors.getDelivered() < 3000 ) {
+			client.getMedium().flush(); // messages the server did not take yet are still queued
+			LockSupport.parkNanos(10000000);
+		}
+		System.out.println(sensors);
+		sensors.complete();
+		try {
+			storage.awaitTermination(1, TimeUnit.SECONDS);
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		client.term();
+	}
+}
@@ -0,0 +1,131 @@
+package hexameter;
+import java.util.ArrayList;
+
+
+/**
+ * A MessageTemplate is a Hexameter message compiled once into its immutable wire form, for
+ * traffic that repeats exactly (like the tocks of a HadesAgent). Sending a template just writes
+ * the cached bytes to the pooled socket of its recipient. Templates are created via
+ * HexameterContext.compile and sent via HexameterContext.send.
+ * 
+ * Small variable fields can be left open by putting a Slot instead of a value into the
+ * parameter, e.g. tickItem.put("period", MessageTemplate.slot()). The slot is compiled into a
+ * fixed-width placeholder, which is filled in with an integral number for each send. Note that
+ * templates are sent past the sphere chain of the HexameterContext (e.g. they are not seen by a
+ * JournalSphere) and always over the network, even to the sending component itself.
+ */
+public class MessageTemplate {
+
+	/**
+	 * A placeholder for an integral number (e.g. a period) in a MessageTemplate's parameter. A
+	 * Slot may only be used in one template.
+	 */
+	public static class Slot {
+		protected int offset = -1;
+		
+		@Override
+		public String toString() {
+			return "<slot>";
+		}
+	}
+	
+	/** Maximum number of characters of a long, i.e. of Long.MIN_VALUE. */
+	protected static final int SLOT_WIDTH = 20;
+	
+	protected String target;
+	protected String type;
+	protected String space;
+	protected byte[] bytes;
+	protected int[] slots;
+	
+	public static Slot slot() {
+		return new Slot();
+	}
+	
+	protected MessageTemplate(String target, String type, String space, byte[] bytes, int[] slots) {
+		this.target = target;
+		this.type = type;
+		this.space = space;
+		this.bytes = bytes;
+		this.slots = slots;
+	}
+	
+	/**
+	 * Compiles the given message, where author is the address of the sending component and
+	 * target the concrete address the message is to be sent to.
+	 */
+	public static MessageTemplate compile(String author, String target, String type, String recipient, String space, Object parameter) {
+		ArrayList<Slot> found = new ArrayList<Slot>();
+		MessageWriter writer = new MessageWriter() {
+			@Override
+			public MessageWriter value(Object value) {
+				if ( value instanceof Slot ) {
+					Slot slot = (Slot) value;
+					if ( slot.offset >= 0 ) {
+						throw new IllegalArgumentException("slot is already used in another template");
+					}
+					slot.offset = this.length();
+					found.add(slot);
+					for ( int i = 0; i < SLOT_WIDTH - 1; i++ ) {
+						this.raw((byte) ' ');
+					}
+					return this.raw((byte) '0');
+				}
+				return super.value(value);
+			}
+		};
+		writer.message(author, recipient, type, space, parameter);
+		int[] slots = new int[found.size()];
+		for ( int i = 0; i < slots.length; i++ ) {
+			slots[i] = found.get(i).offset;
+		}
+		return new MessageTemplate(target, type, space, writer.toByteArray(), slots);
+	}
+	
+	public String getTarget() {
+		return this.target;
+	}
+	
+	public String getType() {
+		return this.type;
+	}
+	
+	public String getSpace() {
+		return this.space;
+	}
+	
+	public int getSlotCount() {
+		return this.slots.length;
+	}
+	
+	/**
+	 * Returns the compiled message. The array must not be modified.
+	 */
+	public byte[] bytes() {
+		return this.bytes;
+	}
+	
+	/**
+	 * Writes the compiled message into the given writer, filling in the slots with the given
+	 * values in the order the slots appear in the message.
+	 */
+	public void fill(MessageWriter writer, long... values) {
+		if ( values.length != this.slots.length ) {
+			throw new IllegalArgumentException("template has " + this.slots.length + " slots, got " + values.length + " values");
+		}
+		writer.reset().raw(this.bytes);
+		byte[] buffer = writer.buffer();
+		for ( int i = 0; i < values.length; i++ ) {
+			long value = values[i];
+			int position = this.slots[i] + SLOT_WIDTH;
+			boolean negative = value < 0;
+			do {
+				buffer[--position] = (byte) ('0' + Math.abs(value % 10));
+				value /= 10;
+			} while ( value != 0 );
+			if ( negative ) {
+				buffer[--position] = '-';
+			}
+		}
+	}
+}
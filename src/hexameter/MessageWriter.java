@@ -0,0 +1,273 @@
+package hexameter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * MessageWriter serializes Hexameter messages directly into a reusable byte buffer, without
+ * building an intermediate JSONObject envelope or String. It writes the same wire format as
+ * json-simple would ("json\n\n" followed by the JSON envelope), with the envelope keys in the
+ * fixed order author, recipient, type, space, parameter. Writers are meant to be reused by one
+ * thread at a time (cf. DaktylosContext, which keeps one per sending thread); the buffer grows as
+ * needed and is never shrunk, so steady-state sending does not allocate for messages whose
+ * parameters consist of strings, integral numbers, integral-valued doubles, booleans, lists and
+ * maps.
+ */
+public class MessageWriter {
+
+	public static final byte[] HEADER = {'j', 's', 'o', 'n', '\n', '\n'};
+	protected static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+	protected static final byte[] NULL = {'n', 'u', 'l', 'l'};
+	protected static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+	protected static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+	protected static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+	
+	protected byte[] buffer;
+	protected int length = 0;
+	protected byte[] digits = new byte[20];
+	
+	public MessageWriter(int capacity) {
+		this.buffer = new byte[capacity];
+	}
+	
+	public MessageWriter() {
+		this(4096);
+	}
+	
+	public byte[] buffer() {
+		return this.buffer;
+	}
+	
+	public int length() {
+		return this.length;
+	}
+	
+	public MessageWriter reset() {
+		this.length = 0;
+		return this;
+	}
+	
+	/**
+	 * Discards everything written after the first length bytes.
+	 */
+	public MessageWriter truncate(int length) {
+		this.length = Math.min(this.length, length);
+		return this;
+	}
+	
+	/**
+	 * Returns a copy of the bytes written so far.
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(this.buffer, this.length);
+	}
+	
+	protected void ensure(int additional) {
+		if ( this.length + additional > this.buffer.length ) {
+			this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.length + additional));
+		}
+	}
+	
+	public MessageWriter raw(byte b) {
+		this.ensure(1);
+		this.buffer[this.length++] = b;
+		return this;
+	}
+	
+	public MessageWriter raw(byte[] bytes) {
+		return this.raw(bytes, 0, bytes.length);
+	}
+	
+	public MessageWriter raw(byte[] bytes, int offset, int count) {
+		this.ensure(count);
+		System.arraycopy(bytes, offset, this.buffer, this.length, count);
+		this.length += count;
+		return this;
+	}
+	
+	/**
+	 * Writes a complete message including the "json" header.
+	 */
+	public MessageWriter message(String author, String recipient, String type, String space, Object parameter) {
+		this.raw(HEADER);
+		this.raw((byte) '{');
+		this.field("author", author).raw((byte) ',');
+		this.field("recipient", recipient).raw((byte) ',');
+		this.field("type", type).raw((byte) ',');
+		this.field("space", space).raw((byte) ',');
+		this.string("parameter").raw((byte) ':').value(parameter);
+		this.raw((byte) '}');
+		return this;
+	}
+	
+	/**
+	 * Adds a field to the envelope of the message just written by message().
+	 */
+	public MessageWriter extend(String key, Object value) {
+		this.length--; // the envelope's closing brace
+		return this.raw((byte) ',').field(key, value).raw((byte) '}');
+	}
+	
+	/**
+	 * Writes a message up to (and including) the key of its recipient field, which comes last
+	 * here, so that the same bytes can be completed for several recipients via recipient().
+	 * The trace field (cf. Tracer) is left out if null.
+	 */
+	public MessageWriter messagePrefix(String author, String type, String space, Object parameter, Object trace) {
+		this.raw(HEADER);
+		this.raw((byte) '{');
+		this.field("author", author).raw((byte) ',');
+		this.field("type", type).raw((byte) ',');
+		this.field("space", space).raw((byte) ',');
+		this.field("parameter", parameter).raw((byte) ',');
+		if ( trace != null ) {
+			this.field("trace", trace).raw((byte) ',');
+		}
+		return this.string("recipient").raw((byte) ':');
+	}
+	
+	public MessageWriter messagePrefix(String author, String type, String space, Object parameter) {
+		return this.messagePrefix(author, type, space, parameter, null);
+	}
+	
+	/**
+	 * Completes a message started with messagePrefix().
+	 */
+	public MessageWriter recipient(String recipient) {
+		return this.string(recipient).raw((byte) '}');
+	}
+	
+	public MessageWriter field(String key, Object value) {
+		this.string(key).raw((byte) ':');
+		return this.value(value);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	public MessageWriter value(Object value) {
+		if ( value == null ) {
+			return this.raw(NULL);
+		} else if ( value instanceof String ) {
+			return this.string((String) value);
+		} else if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ) {
+			return this.number(((Number) value).longValue());
+		} else if ( value instanceof Double || value instanceof Float ) {
+			return this.number(((Number) value).doubleValue());
+		} else if ( value instanceof Boolean ) {
+			return this.raw(((Boolean) value) ? TRUE : FALSE);
+		} else if ( value instanceof Map ) {
+			this.raw((byte) '{');
+			boolean first = true;
+			for ( Object entryObject : ((Map) value).entrySet() ) {
+				Map.Entry entry = (Map.Entry) entryObject;
+				if ( !first ) {
+					this.raw((byte) ',');
+				}
+				first = false;
+				this.string(String.valueOf(entry.getKey())).raw((byte) ':').value(entry.getValue());
+			}
+			return this.raw((byte) '}');
+		} else if ( value instanceof List ) {
+			List list = (List) value;
+			this.raw((byte) '[');
+			for ( int i = 0; i < list.size(); i++ ) {
+				if ( i > 0 ) {
+					this.raw((byte) ',');
+				}
+				this.value(list.get(i));
+			}
+			return this.raw((byte) ']');
+		} else if ( value instanceof Number ) {
+			return this.ascii(value.toString());
+		} else {
+			return this.string(value.toString());
+		}
+	}
+	
+	public MessageWriter number(long value) {
+		if ( value == Long.MIN_VALUE ) {
+			return this.raw(MIN_LONG);
+		}
+		if ( value < 0 ) {
+			this.raw((byte) '-');
+			value = -value;
+		}
+		int count = 0;
+		do {
+			this.digits[count++] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while ( value > 0 );
+		this.ensure(count);
+		while ( count > 0 ) {
+			this.buffer[this.length++] = this.digits[--count];
+		}
+		return this;
+	}
+	
+	/**
+	 * Writes a double like Double.toString would. Integral values of moderate size (which are
+	 * common for motor commands) are written without allocating; others fall back to
+	 * Double.toString. Non-finite values are written as null, since JSON cannot express them.
+	 */
+	public MessageWriter number(double value) {
+		if ( Double.isNaN(value) || Double.isInfinite(value) ) {
+			return this.raw(NULL);
+		}
+		if ( value == Math.rint(value) && Math.abs(value) < 1e7 ) {
+			if ( value == 0 && 1 / value < 0 ) {
+				this.raw((byte) '-');
+			}
+			this.number((long) value);
+			return this.raw((byte) '.').raw((byte) '0');
+		}
+		return this.ascii(Double.toString(value));
+	}
+	
+	protected MessageWriter ascii(String string) {
+		this.ensure(string.length());
+		for ( int i = 0; i < string.length(); i++ ) {
+			this.buffer[this.length++] = (byte) string.charAt(i);
+		}
+		return this;
+	}
+	
+	/**
+	 * Writes the given string as a quoted, escaped JSON string in UTF-8.
+	 */
+	public MessageWriter string(String string) {
+		this.ensure(string.length() + 2);
+		this.buffer[this.length++] = '"';
+		for ( int i = 0; i < string.length(); i++ ) {
+			char c = string.charAt(i);
+			if ( c == '"' || c == '\\' ) {
+				this.raw((byte) '\\').raw((byte) c);
+			} else if ( c < 0x20 ) {
+				switch ( c ) {
+					case '\n': this.raw((byte) '\\').raw((byte) 'n'); break;
+					case '\r': this.raw((byte) '\\').raw((byte) 'r'); break;
+					case '\t': this.raw((byte) '\\').raw((byte) 't'); break;
+					case '\b': this.raw((byte) '\\').raw((byte) 'b'); break;
+					case '\f': this.raw((byte) '\\').raw((byte) 'f'); break;
+					default:
+						this.raw((byte) '\\').raw((byte) 'u').raw((byte) '0').raw((byte) '0');
+						this.raw(HEX[c >> 4]).raw(HEX[c & 0xF]);
+				}
+			} else if ( c < 0x80 ) {
+				this.raw((byte) c);
+			} else if ( c < 0x800 ) {
+				this.raw((byte) (0xC0 | (c >> 6))).raw((byte) (0x80 | (c & 0x3F)));
+			} else if ( Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1)) ) {
+				int codePoint = Character.toCodePoint(c, string.charAt(++i));
+				this.raw((byte) (0xF0 | (codePoint >> 18)));
+				this.raw((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				this.raw((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				this.raw((byte) (0x80 | (codePoint & 0x3F)));
+			} else {
+				this.raw((byte) (0xE0 | (c >> 12)));
+				this.raw((byte) (0x80 | ((c >> 6) & 0x3F)));
+				this.raw((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		return this.raw((byte) '"');
+	}
+}
@@ -1,5 +1,4 @@
 package hexameter;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 
@@ -21,6 +20,8 @@ import org.json.simple.JSONObject;
  */
 public class ObstacleAgent extends HadesAgent {
 
+	protected boolean verbose = true;
+	
 	public ObstacleAgent(String hadesAddress, String name, String[] managedBodies) {
 		super(hadesAddress, name, managedBodies);
 	}
@@ -29,6 +30,11 @@ public class ObstacleAgent extends HadesAgent {
 		super(hadesAddress, hx, managedBodies);
 	}
 
+	public ObstacleAgent setVerbose(boolean verbose) {
+		this.verbose = verbose;
+		return this;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	protected void react(ReactionContext context) {
@@ -37,31 +43,35 @@ public class ObstacleAgent extends HadesAgent {
 		double value = -1; // highest value found so far
 		int idx = -1; // index of the highest value
 		
-		JSONArray proximityMeasurement = (JSONArray) context.sensor("proximity"); //this is how you call a HADES sensor
-		for ( int i = 1; i <= 24; i++ ) {
-			double proxValue = ((Number) ((JSONObject)proximityMeasurement.get(i-1)).get("value")).doubleValue();
+		double[] proximityMeasurement = context.sensorDoubles("proximity"); //this is how you call a HADES sensor
+		for ( int i = 1; i <= proximityMeasurement.length; i++ ) {
+			double proxValue = proximityMeasurement[i-1];
 			if ( value < proxValue ) {
 				idx = i;
 				value = proxValue;
 			}
 		}
 		
+		int count = proximityMeasurement.length; // 24 readings for the usual proximity sensor
+		double steps = Math.max(1, count / 2 - 1);
 		JSONObject motorControl = new JSONObject();
 		if ( value == 0 ) {
 			motorControl.put("left", speed);
 			motorControl.put("right", speed);
 		} else {
-			if ( idx <= 12 ) {
+			if ( idx <= count / 2 ) {
 				motorControl.put("left", speed);
-				motorControl.put("right", Math.ceil((double) (idx-1) * speed / 11.0));
+				motorControl.put("right", Math.ceil((double) (idx-1) * speed / steps));
 			} else {
-				motorControl.put("left", Math.ceil((double) (24-idx) * speed / 11.0));
+				motorControl.put("left", Math.ceil((double) (count-idx) * speed / steps));
 				motorControl.put("right", speed);
 			}
 		}
 		context.motor("setvelocity", motorControl); //this is how you call a HADES motor
 		
-		System.out.println("::  told "+context.getBody()+" to set velocity to ("+motorControl.get("left").toString()+", "+motorControl.get("right").toString()+")");
+		if ( this.verbose ) {
+			System.out.println("::  told "+context.getBody()+" to set velocity to ("+motorControl.get("left").toString()+", "+motorControl.get("right").toString()+")");
+		}
 	}
 	
 	static public void main(String[] args) {
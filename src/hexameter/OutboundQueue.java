@@ -0,0 +1,137 @@
+package hexameter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+
+/**
+ * An OutboundQueue holds the messages a DaktylosContext could not hand over to the socket of one
+ * recipient right away (because the socket's high-water mark has been reached, e.g. since the
+ * recipient is slow or gone). Its capacity is bounded and its Policy decides what happens when
+ * it is full. Queued messages are retried on every send and every respond of the owning
+ * DaktylosContext.
+ */
+public class OutboundQueue {
+
+	public static enum Policy {
+		/** wait (up to the queue's timeout) for the recipient to take messages, then drop the new one */
+		BLOCK,
+		/** drop the oldest queued message to make room for the new one */
+		DROP_OLDEST,
+		/** drop the new message */
+		DROP_NEWEST,
+		/** throw an Overflow exception */
+		FAIL_FAST
+	}
+	
+	/**
+	 * Thrown when sending to a recipient whose full queue has the FAIL_FAST policy.
+	 */
+	public static class Overflow extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		public Overflow(String target, int capacity) {
+			super("outbound queue to " + target + " is full (" + capacity + " messages)");
+		}
+	}
+	
+	protected String target;
+	protected int capacity;
+	protected Policy policy;
+	protected long timeout;
+	protected ArrayDeque<byte[]> messages = new ArrayDeque<byte[]>();
+	protected long queued = 0;
+	protected long dropped = 0;
+	protected int maxDepth = 0;
+	
+	/**
+	 * @param timeout the maximum time in ms to wait with the BLOCK policy, negative for no limit
+	 */
+	public OutboundQueue(String target, int capacity, Policy policy, long timeout) {
+		this.target = target;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.timeout = timeout;
+	}
+	
+	public String getTarget() {
+		return this.target;
+	}
+	
+	public int getCapacity() {
+		return this.capacity;
+	}
+	
+	public Policy getPolicy() {
+		return this.policy;
+	}
+	
+	public long getTimeout() {
+		return this.timeout;
+	}
+	
+	public int getDepth() {
+		return this.messages.size();
+	}
+	
+	public int getMaxDepth() {
+		return this.maxDepth;
+	}
+	
+	public long getQueued() {
+		return this.queued;
+	}
+	
+	public long getDropped() {
+		return this.dropped;
+	}
+	
+	public boolean isEmpty() {
+		return this.messages.isEmpty();
+	}
+	
+	public boolean isFull() {
+		return this.messages.size() >= this.capacity;
+	}
+	
+	/**
+	 * Returns how full the queue is, from 0 (empty) to 1 (full). Senders can use this as a
+	 * backpressure signal.
+	 */
+	public double getPressure() {
+		return this.capacity > 0 ? (double) this.messages.size() / this.capacity : 1;
+	}
+	
+	protected byte[] peek() {
+		return this.messages.peekFirst();
+	}
+	
+	protected void remove() {
+		this.messages.pollFirst();
+	}
+	
+	/**
+	 * Queues a copy of the given message if there is room, applying the DROP_OLDEST policy if
+	 * necessary. Returns false if the message has not been queued.
+	 */
+	protected boolean offer(byte[] message, int offset, int length) {
+		if ( this.isFull() ) {
+			if ( this.policy != Policy.DROP_OLDEST || this.capacity == 0 ) {
+				return false;
+			}
+			this.messages.pollFirst();
+			this.dropped++;
+		}
+		this.messages.addLast(Arrays.copyOfRange(message, offset, offset + length));
+		this.queued++;
+		this.maxDepth = Math.max(this.maxDepth, this.messages.size());
+		return true;
+	}
+	
+	protected void drop() {
+		this.dropped++;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s: depth %d/%d (max %d), %d queued, %d dropped", this.target, this.getDepth(), this.capacity, this.maxDepth, this.queued, this.dropped);
+	}
+}
@@ -0,0 +1,78 @@
+package hexameter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+
+/**
+ * PackedCodec encodes arrays of numbers as packed primitives instead of JSON arrays of boxed
+ * numbers (or, as is common for HADES sensors, of objects like {value: 0.5}). A packed array of
+ * doubles is represented in a message as a JSON object with the single key "f64", whose value is
+ * the Base64 encoding of the little-endian IEEE 754 representation of all values, e.g.
+ * {"f64": "AAAAAAAA4D8AAAAAAAAAAA=="} for [0.5, 0.0]. Decoding such a value does not need to
+ * allocate a boxed number or map per element.
+ */
+public class PackedCodec {
+
+	public static final String DOUBLES = "f64";
+	
+	public static String encode(double[] values) {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.asDoubleBuffer().put(values);
+		return Base64.getEncoder().encodeToString(buffer.array());
+	}
+	
+	public static double[] decode(String encoded) {
+		ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(encoded)).order(ByteOrder.LITTLE_ENDIAN);
+		double[] values = new double[buffer.remaining() / 8];
+		buffer.asDoubleBuffer().get(values);
+		return values;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static JSONObject pack(double... values) {
+		JSONObject packed = new JSONObject();
+		packed.put(DOUBLES, encode(values));
+		return packed;
+	}
+	
+	public static boolean isPacked(Object value) {
+		return value instanceof JSONObject
+				&& ((JSONObject) value).size() == 1
+				&& ((JSONObject) value).get(DOUBLES) instanceof String;
+	}
+	
+	/**
+	 * Converts a value received via Hexameter to an array of doubles. Packed values are decoded
+	 * directly; JSON arrays may contain numbers or objects, in which case the number found under
+	 * the given field (e.g. "value") is used. Other values yield an empty array.
+	 */
+	public static double[] doubles(Object value, String field) {
+		if ( isPacked(value) ) {
+			return decode((String) ((JSONObject) value).get(DOUBLES));
+		}
+		if ( value instanceof JSONArray ) {
+			JSONArray array = (JSONArray) value;
+			double[] values = new double[array.size()];
+			for ( int i = 0; i < values.length; i++ ) {
+				Object item = array.get(i);
+				if ( item instanceof JSONObject ) {
+					item = ((JSONObject) item).get(field);
+				}
+				values[i] = item instanceof Number ? ((Number) item).doubleValue() : 0;
+			}
+			return values;
+		}
+		if ( value instanceof Number ) {
+			return new double[] {((Number) value).doubleValue()};
+		}
+		return new double[0];
+	}
+	
+	public static double[] doubles(Object value) {
+		return doubles(value, "value");
+	}
+}
@@ -0,0 +1,214 @@
+package hexameter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * PayloadCompressor compresses and decompresses Hexameter messages with the JDK's Deflate
+ * implementation. A compressed message carries the header "json+deflate" instead of "json",
+ * followed by the raw Deflate stream of the JSON envelope, so every message says for itself
+ * whether it is compressed. Deflater and Inflater instances are kept per thread and reused.
+ * PayloadCompressor also collects metrics on the achieved compression ratio and the time spent.
+ */
+public class PayloadCompressor {
+
+	public static final byte[] HEADER = {'j', 's', 'o', 'n', '+', 'd', 'e', 'f', 'l', 'a', 't', 'e', '\n', '\n'};
+	
+	protected int threshold;
+	protected int level;
+	protected ThreadLocal<Deflater> deflaters;
+	protected ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+	protected ThreadLocal<byte[]> inflated = ThreadLocal.withInitial(() -> new byte[4096]);
+	
+	protected AtomicLong compressed = new AtomicLong();
+	protected AtomicLong skipped = new AtomicLong();
+	protected AtomicLong bytesIn = new AtomicLong();
+	protected AtomicLong bytesOut = new AtomicLong();
+	protected AtomicLong compressNanos = new AtomicLong();
+	protected AtomicLong decompressed = new AtomicLong();
+	protected AtomicLong decompressNanos = new AtomicLong();
+	
+	/**
+	 * @param threshold the minimum size of a JSON envelope in bytes to be compressed, negative to
+	 *                  never compress (decompression works regardless)
+	 * @param level the Deflate level, cf. java.util.zip.Deflater
+	 */
+	public PayloadCompressor(int threshold, int level) {
+		this.threshold = threshold;
+		this.level = level;
+		this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level, true));
+	}
+	
+	public int getThreshold() {
+		return this.threshold;
+	}
+	
+	public static boolean isCompressed(byte[] message, int offset, int length) {
+		if ( length < HEADER.length ) {
+			return false;
+		}
+		for ( int i = 0; i < HEADER.length; i++ ) {
+			if ( message[offset + i] != HEADER[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Compresses the message written by source (which must start with MessageWriter.HEADER) into
+	 * target if it is large enough and compression actually pays off. Returns true if target
+	 * now contains the compressed message, false if source should be sent as it is.
+	 */
+	public boolean compress(MessageWriter source, MessageWriter target) {
+		int length = source.length() - MessageWriter.HEADER.length;
+		if ( this.threshold < 0 || length < this.threshold ) {
+			return false;
+		}
+		long started = System.nanoTime();
+		Deflater deflater = this.deflaters.get();
+		deflater.reset();
+		deflater.setInput(source.buffer(), MessageWriter.HEADER.length, length);
+		deflater.finish();
+		target.reset().raw(HEADER);
+		while ( !deflater.finished() ) {
+			target.ensure(Math.max(256, length / 4));
+			int written = deflater.deflate(target.buffer, target.length, target.buffer.length - target.length);
+			target.length += written;
+			if ( target.length >= source.length() ) {
+				this.skipped.incrementAndGet();
+				return false;
+			}
+		}
+		this.compressNanos.addAndGet(System.nanoTime() - started);
+		this.compressed.incrementAndGet();
+		this.bytesIn.addAndGet(length);
+		this.bytesOut.addAndGet(target.length - HEADER.length);
+		return true;
+	}
+	
+	/**
+	 * Compresses the beginning of a message written by source (cf. MessageWriter.messagePrefix)
+	 * into target without finishing the Deflate stream, so it can be completed for several
+	 * recipients via complete(). Returns false if source is below the threshold or
+	 * compressing it would not make it shorter.
+	 */
+	public boolean compressPrefix(MessageWriter source, MessageWriter target) {
+		int length = source.length() - MessageWriter.HEADER.length;
+		if ( this.threshold < 0 || length < this.threshold ) {
+			return false;
+		}
+		long started = System.nanoTime();
+		Deflater deflater = this.deflaters.get();
+		deflater.reset();
+		deflater.setInput(source.buffer(), MessageWriter.HEADER.length, length);
+		target.reset().raw(HEADER);
+		do {
+			target.ensure(Math.max(256, length / 4));
+			target.length += deflater.deflate(target.buffer, target.length, target.buffer.length - target.length, Deflater.SYNC_FLUSH);
+			// complete() adds the same rest to both plus the 5 bytes of the stored block header
+			if ( target.length + 5 >= source.length() ) {
+				this.skipped.incrementAndGet();
+				return false;
+			}
+		} while ( target.length == target.buffer.length );
+		this.compressNanos.addAndGet(System.nanoTime() - started);
+		this.compressed.incrementAndGet();
+		this.bytesIn.addAndGet(length);
+		this.bytesOut.addAndGet(target.length - HEADER.length);
+		return true;
+	}
+	
+	/**
+	 * Finishes a Deflate stream started by compressPrefix() (which ends byte-aligned due to the
+	 * sync flush) by appending the given bytes as a final stored block.
+	 */
+	public void complete(MessageWriter target, byte[] rest, int offset, int length) {
+		target.raw((byte) 0x01);
+		target.raw((byte) (length & 0xFF)).raw((byte) ((length >> 8) & 0xFF));
+		target.raw((byte) (~length & 0xFF)).raw((byte) ((~length >> 8) & 0xFF));
+		target.raw(rest, offset, length);
+	}
+	
+	/**
+	 * Decompresses a message starting with HEADER and returns its JSON envelope.
+	 */
+	public String decompress(byte[] message, int offset, int length) {
+		long started = System.nanoTime();
+		Inflater inflater = this.inflaters.get();
+		inflater.reset();
+		inflater.setInput(message, offset + HEADER.length, length - HEADER.length);
+		byte[] buffer = this.inflated.get();
+		int size = 0;
+		try {
+			while ( !inflater.finished() ) {
+				if ( size == buffer.length ) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					this.inflated.set(buffer);
+				}
+				int read = inflater.inflate(buffer, size, buffer.length - size);
+				if ( read == 0 && (inflater.needsInput() || inflater.needsDictionary()) ) {
+					break;
+				}
+				size += read;
+			}
+		} catch ( DataFormatException e ) {
+			throw new IllegalArgumentException("corrupt compressed Hexameter message", e);
+		}
+		this.decompressNanos.addAndGet(System.nanoTime() - started);
+		this.decompressed.incrementAndGet();
+		return new String(buffer, 0, size, StandardCharsets.UTF_8);
+	}
+	
+	public long getCompressed() {
+		return this.compressed.get();
+	}
+	
+	/**
+	 * Returns the number of messages above the threshold which were sent uncompressed since
+	 * compression did not make them smaller.
+	 */
+	public long getSkipped() {
+		return this.skipped.get();
+	}
+	
+	public long getDecompressed() {
+		return this.decompressed.get();
+	}
+	
+	/**
+	 * Returns compressed size divided by original size over all compressed messages, or 1 if
+	 * nothing has been compressed.
+	 */
+	public double getRatio() {
+		long in = this.bytesIn.get();
+		return in > 0 ? (double) this.bytesOut.get() / in : 1;
+	}
+	
+	public double getCompressMicrosPerMessage() {
+		long count = this.compressed.get();
+		return count > 0 ? this.compressNanos.get() / 1000.0 / count : 0;
+	}
+	
+	public double getDecompressMicrosPerMessage() {
+		long count = this.decompressed.get();
+		return count > 0 ? this.decompressNanos.get() / 1000.0 / count : 0;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format(
+				"%d compressed (ratio %.3f, %.1fus each), %d skipped, %d decompressed (%.1fus each)",
+				this.getCompressed(),
+				this.getRatio(),
+				this.getCompressMicrosPerMessage(),
+				this.getSkipped(),
+				this.getDecompressed(),
+				this.getDecompressMicrosPerMessage()
+		);
+	}
+}
@@ -0,0 +1,252 @@
+package hexameter;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+
+/**
+ * PeerHealth keeps track of whether the peers a HexameterContext talks to are still there. Any
+ * message received from a peer counts as a sign of life. Peers that have been silent for a
+ * while are sent lightweight net.life probes (which every Hexameter component answers), whose
+ * answers also yield a round-trip time estimate. Depending on how long a peer has been silent,
+ * it is considered ALIVE, SUSPECT or DEAD. When a peer is declared dead, its pooled socket is
+ * closed along with all messages still queued for it, and ask()s waiting for it fail with
+ * Unreachable instead of waiting forever. Dead peers are probed less and less often (the time
+ * between probes doubles) and no longer tracked at all once they have been dead for the
+ * retention time (cf. setRetention).
+ * 
+ * PeerHealth is driven by the HexameterContext it belongs to (cf. HexameterContext.monitor), on
+ * each respond() and while waiting for the answer to an ask().
+ */
+public class PeerHealth {
+
+	public static enum State {
+		ALIVE, SUSPECT, DEAD
+	}
+	
+	/**
+	 * Thrown by HexameterContext.ask when the asked peer is dead or does not answer in time.
+	 */
+	public static class Unreachable extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		protected String peer;
+		public Unreachable(String peer, String reason) {
+			super(peer + " is unreachable: " + reason);
+			this.peer = peer;
+		}
+		public String getPeer() {
+			return this.peer;
+		}
+	}
+	
+	public static class Peer {
+		protected String address;
+		protected State state = State.ALIVE;
+		protected long lastHeard;
+		protected long lastProbe = 0;
+		protected long died = 0;
+		protected long probes = 0;
+		protected long answers = 0;
+		protected double rtt = -1;
+		protected MessageTemplate probe = null;
+		
+		protected Peer(String address, long now) {
+			this.address = address;
+			this.lastHeard = now;
+		}
+		
+		public String getAddress() {
+			return this.address;
+		}
+		
+		public State getState() {
+			return this.state;
+		}
+		
+		/**
+		 * Returns the smoothed round-trip time of net.life probes in ms, or -1 if no probe has
+		 * been answered yet.
+		 */
+		public double getRoundTripTime() {
+			return this.rtt < 0 ? -1 : this.rtt / 1e6;
+		}
+		
+		public long getProbes() {
+			return this.probes;
+		}
+		
+		public long getAnswers() {
+			return this.answers;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s: %s, rtt %.3fms, %d/%d probes answered", this.address, this.state, this.getRoundTripTime(), this.answers, this.probes);
+		}
+	}
+	
+	protected HexameterContext hx;
+	protected long interval;
+	protected long suspectAfter;
+	protected long deadAfter;
+	protected long retention;
+	protected HashMap<String, Peer> peers = new HashMap<String, Peer>();
+	protected long lastTick = 0;
+	
+	/**
+	 * @param interval how often to probe silent peers, in ms
+	 * @param suspectAfter after how many ms of silence a peer is considered suspect
+	 * @param deadAfter after how many ms of silence a peer is considered dead
+	 */
+	public PeerHealth(HexameterContext hx, long interval, long suspectAfter, long deadAfter) {
+		this.hx = hx;
+		this.interval = interval * 1000000;
+		this.suspectAfter = suspectAfter * 1000000;
+		this.deadAfter = deadAfter * 1000000;
+		this.retention = 10 * this.deadAfter;
+	}
+	
+	/**
+	 * Sets after how many ms a dead peer is no longer tracked (and probed), ten times the time
+	 * after which peers are considered dead by default. A peer that is sent messages again is
+	 * tracked anew.
+	 */
+	public PeerHealth setRetention(long retention) {
+		this.retention = retention * 1000000;
+		return this;
+	}
+	
+	public long getInterval() {
+		return this.interval / 1000000;
+	}
+	
+	public HashMap<String, Peer> getPeers() {
+		return this.peers;
+	}
+	
+	public State state(String address) {
+		Peer peer = this.peers.get(address);
+		return peer != null ? peer.state : State.ALIVE;
+	}
+	
+	/**
+	 * Throws Unreachable if the given peer is considered dead.
+	 */
+	public void check(String address) {
+		if ( this.state(address) == State.DEAD ) {
+			throw new PeerHealth.Unreachable(address, "no sign of life for more than " + (this.deadAfter / 1000000) + "ms");
+		}
+	}
+	
+	/**
+	 * Stops tracking the given peer.
+	 */
+	public void forget(String address) {
+		this.peers.remove(address);
+	}
+	
+	/**
+	 * Notes that no messages have been received for the given time (in ns) for reasons of our own
+	 * (cf. HexameterContext.stream and tick()), so the silence of peers not already dead does not
+	 * count during that time.
+	 */
+	public void excuse(long duration) {
+		long now = System.nanoTime();
+		for ( Peer peer : this.peers.values() ) {
+			if ( peer.state != State.DEAD ) {
+				peer.lastHeard = Math.min(now, peer.lastHeard + duration);
+			}
+		}
+	}
+	
+	/**
+	 * Notes that a message is sent to the given (concrete) address.
+	 */
+	public void sent(String address) {
+		if ( !this.peers.containsKey(address) ) {
+			this.peers.put(address, new Peer(address, System.nanoTime()));
+		}
+	}
+	
+	/**
+	 * Notes that a message has been received from the given author.
+	 */
+	public void heard(String type, String author, String space, JSONArray parameter) {
+		Peer peer = this.peers.get(author);
+		if ( peer == null ) {
+			return;
+		}
+		long now = System.nanoTime();
+		peer.lastHeard = now;
+		peer.state = State.ALIVE;
+		if ( type.equals("ack") && space.equals("net.life") && parameter != null ) {
+			for ( Object parameterItem : parameter ) {
+				Object sent = parameterItem instanceof JSONObject ? ((JSONObject) parameterItem).get("probe") : null;
+				if ( sent instanceof Long ) {
+					long rtt = now - (Long) sent;
+					peer.rtt = peer.rtt < 0 ? rtt : 0.8 * peer.rtt + 0.2 * rtt;
+					peer.answers++;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Updates the state of all peers and probes those which have been silent for a while. Calls
+	 * more frequent than a quarter of the probing interval return right away; if the last call
+	 * has been more than an interval ago, the time beyond that is excused (cf. excuse()).
+	 */
+	public void tick() {
+		long now = System.nanoTime();
+		long elapsed = now - this.lastTick;
+		if ( elapsed < this.interval / 4 ) {
+			return;
+		}
+		// a longer gap means no messages have been read meanwhile (e.g. during a slow react or a GC
+		// pause), so answers may be waiting in the socket; the time beyond one interval does not count
+		if ( this.lastTick != 0 && elapsed > this.interval ) {
+			this.excuse(elapsed - this.interval);
+		}
+		this.lastTick = now;
+		Iterator<Peer> iterator = this.peers.values().iterator();
+		while ( iterator.hasNext() ) {
+			Peer peer = iterator.next();
+			long silence = now - peer.lastHeard;
+			long wait = this.interval;
+			if ( silence > this.deadAfter ) {
+				if ( peer.state != State.DEAD ) {
+					peer.state = State.DEAD;
+					peer.died = now;
+					this.hx.getMedium().forget(peer.address);
+					peer.probe = null;
+				} else if ( now - peer.died > this.retention ) {
+					// also closes the socket reopened by the probes since
+					this.hx.getMedium().forget(peer.address);
+					iterator.remove();
+					continue;
+				}
+				// back off: wait at least as long as the peer had been dead at the last probe
+				wait = Math.max(wait, peer.lastProbe - peer.died);
+			} else if ( silence > this.suspectAfter ) {
+				peer.state = State.SUSPECT;
+			}
+			if ( silence >= this.interval && now - peer.lastProbe >= wait ) {
+				this.probe(peer, now);
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected void probe(Peer peer, long now) {
+		if ( peer.probe == null ) {
+			JSONObject probeItem = new JSONObject();
+			probeItem.put("probe", MessageTemplate.slot());
+			peer.probe = this.hx.compile("put", peer.address, "net.life", probeItem);
+		}
+		peer.lastProbe = now;
+		peer.probes++;
+		this.hx.send(peer.probe, now);
+	}
+}
@@ -0,0 +1,362 @@
+package hexameter;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.simple.*;
+
+
+/**
+ * PriorityLanes keeps time-critical messages (like hades.ticks or the acks ask() is waiting for)
+ * from getting stuck behind bulk traffic. When set on a DaktylosContext, all messages that have
+ * arrived are taken from the socket right away, classified by their header fields (cf. Envelope,
+ * the parameter is not parsed) and put into the queue of their lane. Messages are then processed
+ * from the lanes by smooth weighted round robin: a lane with weight 10 gets 10 turns for every
+ * turn of a lane with weight 1 (as long as both have messages waiting), but no lane starves.
+ *
+ * Lanes are assigned per space or space prefix via assign() and assignPrefix(); acks and
+ * compressed messages (which are large and whose headers are not read) can be given lanes of
+ * their own. Everything else goes to the default lane, which is the first lane added unless set
+ * via otherwise(). A lane can also be given separate outbound sockets, so that messages sent in
+ * that lane do not queue up behind bulk messages to the same recipient either.
+ *
+ * Lane depths and the time messages waited in their lane are available via getLanes(). This
+ * class is not thread-safe; it is used by the thread calling respond().
+ */
+public class PriorityLanes {
+	
+	public static class Lane {
+		protected String name;
+		protected int weight;
+		protected boolean separate;
+		protected int current = 0;
+		protected byte[][] messages = new byte[16][];
+		protected long[] arrivals = new long[16];
+		protected int head = 0;
+		protected int size = 0;
+		protected int maxDepth = 0;
+		protected long handled = 0;
+		protected long totalWait = 0;
+		protected long maxWait = 0;
+		protected double recentWait = 0;
+		
+		protected Lane(String name, int weight, boolean separate) {
+			this.name = name;
+			this.weight = weight;
+			this.separate = separate;
+		}
+		
+		protected void offer(byte[] message, long now) {
+			if ( this.size == this.messages.length ) {
+				byte[][] messages = new byte[this.size * 2][];
+				long[] arrivals = new long[this.size * 2];
+				for ( int i = 0; i < this.size; i++ ) {
+					messages[i] = this.messages[(this.head + i) % this.size];
+					arrivals[i] = this.arrivals[(this.head + i) % this.size];
+				}
+				this.messages = messages;
+				this.arrivals = arrivals;
+				this.head = 0;
+			}
+			int tail = (this.head + this.size) % this.messages.length;
+			this.messages[tail] = message;
+			this.arrivals[tail] = now;
+			this.size++;
+			this.maxDepth = Math.max(this.maxDepth, this.size);
+		}
+		
+		protected byte[] poll(long now) {
+			byte[] message = this.messages[this.head];
+			long wait = now - this.arrivals[this.head];
+			this.messages[this.head] = null;
+			this.head = (this.head + 1) % this.messages.length;
+			this.size--;
+			this.handled++;
+			this.totalWait += wait;
+			this.maxWait = Math.max(this.maxWait, wait);
+			this.recentWait = this.handled == 1 ? wait : 0.9 * this.recentWait + 0.1 * wait;
+			return message;
+		}
+		
+		public String getName() {
+			return this.name;
+		}
+		
+		public int getWeight() {
+			return this.weight;
+		}
+		
+		public int getDepth() {
+			return this.size;
+		}
+		
+		public int getMaxDepth() {
+			return this.maxDepth;
+		}
+		
+		public long getHandled() {
+			return this.handled;
+		}
+		
+		/**
+		 * Returns the average time (in ns) messages waited in this lane.
+		 */
+		public double getMeanWait() {
+			return this.handled == 0 ? 0 : (double) this.totalWait / this.handled;
+		}
+		
+		public long getMaxWait() {
+			return this.maxWait;
+		}
+		
+		/**
+		 * Returns the average time (in ns) the last few messages waited in this lane.
+		 */
+		public double getRecentWait() {
+			return this.recentWait;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format(
+					"%s (weight %d): depth %d (max %d), %d handled, wait mean %.3fms recent %.3fms max %.3fms",
+					this.name, this.weight, this.size, this.maxDepth, this.handled,
+					this.getMeanWait() / 1e6, this.recentWait / 1e6, this.maxWait / 1e6
+			);
+		}
+	}
+	
+	protected ArrayList<Lane> lanes = new ArrayList<Lane>();
+	protected SpaceTable<Lane> spaces = new SpaceTable<Lane>();
+	protected Lane fallback = null;
+	protected Lane acks = null;
+	protected Lane compressed = null;
+	protected int capacity = 10000;
+	protected int size = 0;
+	protected Envelope envelope = new Envelope();
+	
+	/**
+	 * Returns lanes suitable for HADES agents: a "control" lane with weight 16 for acks,
+	 * hades.ticks, hades.tocks and net.* spaces, and a default lane with weight 1.
+	 */
+	public static PriorityLanes hades() {
+		return new PriorityLanes()
+			.lane("default", 1)
+			.lane("control", 16)
+			.assign("hades.ticks", "control")
+			.assign("hades.tocks", "control")
+			.assignPrefix("net.", "control")
+			.acks("control");
+	}
+	
+	/**
+	 * Adds a lane with the given name and weight.
+	 */
+	public PriorityLanes lane(String name, int weight) {
+		return this.lane(name, weight, false);
+	}
+	
+	/**
+	 * Adds a lane with the given name and weight; if separate is true, messages sent in that lane
+	 * use sockets of their own.
+	 */
+	public PriorityLanes lane(String name, int weight, boolean separate) {
+		Lane lane = new Lane(name, Math.max(1, weight), separate);
+		this.lanes.add(lane);
+		if ( this.fallback == null ) {
+			this.fallback = lane;
+		}
+		return this;
+	}
+	
+	public Lane getLane(String name) {
+		for ( Lane lane : this.lanes ) {
+			if ( lane.name.equals(name) ) {
+				return lane;
+			}
+		}
+		throw new IllegalArgumentException("no lane named " + name);
+	}
+	
+	public PriorityLanes assign(String space, String lane) {
+		this.spaces.put(space, this.getLane(lane));
+		return this;
+	}
+	
+	public PriorityLanes assignPrefix(String prefix, String lane) {
+		this.spaces.putPrefix(prefix, this.getLane(lane));
+		return this;
+	}
+	
+	/**
+	 * Puts all acks in the given lane regardless of their space.
+	 */
+	public PriorityLanes acks(String lane) {
+		this.acks = this.getLane(lane);
+		return this;
+	}
+	
+	/**
+	 * Puts all compressed messages in the given lane (instead of the default lane).
+	 */
+	public PriorityLanes compressed(String lane) {
+		this.compressed = this.getLane(lane);
+		return this;
+	}
+	
+	public PriorityLanes otherwise(String lane) {
+		this.fallback = this.getLane(lane);
+		return this;
+	}
+	
+	/**
+	 * Sets how many messages may wait in all lanes together; beyond that, messages are left in
+	 * the socket (10000 by default).
+	 */
+	public PriorityLanes setCapacity(int capacity) {
+		this.capacity = capacity;
+		return this;
+	}
+	
+	/**
+	 * Returns the lane for a message of the given type to the given space.
+	 */
+	public Lane classify(String type, String space) {
+		if ( this.acks != null && "ack".equals(type) ) {
+			return this.acks;
+		}
+		Lane lane = space == null ? null : this.spaces.get(space);
+		return lane != null ? lane : this.fallback;
+	}
+	
+	protected Lane classify(byte[] message) {
+		if ( PayloadCompressor.isCompressed(message, 0, message.length) ) {
+			return this.compressed != null ? this.compressed : this.fallback;
+		}
+		if ( !this.envelope.scan(message, 0, message.length) ) {
+			return this.fallback;
+		}
+		return this.classify(this.envelope.getType(), this.envelope.getSpace());
+	}
+	
+	/**
+	 * Returns the key for the socket to send a message of the given type and space to target
+	 * with: target itself, or target#lane if the lane has separate sockets.
+	 */
+	public String route(String target, String type, String space) {
+		Lane lane = this.classify(type, space);
+		return lane.separate && lane != this.fallback ? target + "#" + lane.name : target;
+	}
+	
+	public void offer(byte[] message) {
+		this.classify(message).offer(message, System.nanoTime());
+		this.size++;
+	}
+	
+	public boolean isFull() {
+		return this.size >= this.capacity;
+	}
+	
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+	
+	/**
+	 * Takes the next message to process, null if all lanes are empty.
+	 */
+	public byte[] poll() {
+		if ( this.size == 0 ) {
+			return null;
+		}
+		Lane chosen = null;
+		int total = 0;
+		for ( Lane lane : this.lanes ) {
+			if ( lane.size > 0 ) {
+				lane.current += lane.weight;
+				total += lane.weight;
+				if ( chosen == null || lane.current > chosen.current ) {
+					chosen = lane;
+				}
+			}
+		}
+		chosen.current -= total;
+		this.size--;
+		return chosen.poll(System.nanoTime());
+	}
+	
+	/**
+	 * Takes the next message from the acks lane (cf. acks()), null if there is none.
+	 */
+	public byte[] pollAcks() {
+		if ( this.acks == null || this.acks.size == 0 ) {
+			return null;
+		}
+		this.size--;
+		return this.acks.poll(System.nanoTime());
+	}
+	
+	public Lane[] getLanes() {
+		return this.lanes.toArray(new Lane[this.lanes.size()]);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for ( Lane lane : this.lanes ) {
+			builder.append(lane).append('\n');
+		}
+		return builder.toString();
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) {
+		for ( PriorityLanes lanes : new PriorityLanes[] {null, PriorityLanes.hades()} ) {
+			String address = lanes == null ? "localhost:55681" : "localhost:55682";
+			LatencyStats ticks = new LatencyStats();
+			HexameterContext server = new HexameterContext();
+			server.init(address, () -> (type, author, space, parameter, recipient) -> {
+				if ( space.equals("hades.ticks") ) {
+					long sent = (Long) ((JSONObject) parameter.get(0)).get("sent");
+					synchronized ( ticks ) {
+						ticks.record(System.nanoTime() - sent);
+					}
+				} else {
+					LockSupport.parkNanos(500000); // bulk messages take a while to process
+				}
+				return null;
+			});
+			server.getMedium().setPriorityLanes(lanes);
+			Thread thread = new Thread(() -> {
+				while ( true ) {
+					server.respond(0);
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+			HexameterContext client = new HexameterContext();
+			client.init(lanes == null ? "localhost:55683" : "localhost:55684");
+			JSONObject item = new JSONObject();
+			item.put("payload", "bulk");
+			for ( int i = 0; i < 500; i++ ) {
+				client.tell("put", address, "bulk", item);
+				if ( i % 25 == 0 ) {
+					JSONObject tick = new JSONObject();
+					tick.put("sent", System.nanoTime());
+					client.tell("put", address, "hades.ticks", tick);
+				}
+			}
+			while ( true ) {
+				synchronized ( ticks ) {
+					if ( ticks.count() == 20 ) {
+						System.out.println((lanes == null ? "without lanes: " : "with lanes: ") + ticks.summary("ticks"));
+						break;
+					}
+				}
+				LockSupport.parkNanos(10000000);
+			}
+			if ( lanes != null ) {
+				System.out.print(lanes);
+			}
+			client.term();
+		}
+	}
+}
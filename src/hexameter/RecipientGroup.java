@@ -0,0 +1,207 @@
+package hexameter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * RecipientGroup is a logical recipient name standing for several replicas (addresses of
+ * components serving the same spaces). Once registered via HexameterContext.group, the name can
+ * be used as recipient of tell() and ask(), which then send each message to one replica chosen
+ * by the group's policy:
+ * <ul>
+ * <li>ROUND_ROBIN takes turns,</li>
+ * <li>LEAST_OUTSTANDING picks the replica with the fewest asks currently waiting for a
+ *     response (taking turns among equals), which matters when several threads ask,</li>
+ * <li>LATENCY_WEIGHTED picks replicas at random, weighted by the inverse of their observed ask
+ *     round trip times; replicas not measured yet are tried first.</li>
+ * </ul>
+ * If a replica does not answer an ask within the group's timeout (or is considered dead by
+ * PeerHealth, cf. HexameterContext.monitor), it is skipped for a while and the ask is retried
+ * with the next replica. Only if no replica answers, ask() throws PeerHealth.Unreachable.
+ */
+public class RecipientGroup {
+	
+	public static enum Policy {
+		ROUND_ROBIN, LEAST_OUTSTANDING, LATENCY_WEIGHTED
+	}
+	
+	public static class Replica {
+		protected String address;
+		protected int outstanding = 0;
+		protected double rtt = -1; // EWMA in ns, -1 until measured
+		protected boolean down = false;
+		protected long downUntil = 0;
+		protected long requests = 0;
+		protected long failures = 0;
+		
+		protected Replica(String address) {
+			this.address = address;
+		}
+		
+		public String getAddress() {
+			return this.address;
+		}
+		
+		@Override
+		public String toString() {
+			return this.address + " (" + this.requests + " requests, " + this.failures + " failures, "
+					+ (this.rtt < 0 ? "rtt unknown" : String.format("rtt %.3fms", this.rtt / 1e6)) + ")";
+		}
+	}
+	
+	protected String name;
+	protected Policy policy;
+	protected Replica[] replicas;
+	protected int next = 0;
+	protected long timeout = 1000;
+	protected long downtime = TimeUnit.SECONDS.toNanos(5);
+	protected double smoothing = 0.2;
+	
+	public RecipientGroup(String name, Policy policy, String... addresses) {
+		if ( addresses.length == 0 ) {
+			throw new IllegalArgumentException("group " + name + " needs at least one address");
+		}
+		this.name = name;
+		this.policy = policy;
+		this.replicas = new Replica[addresses.length];
+		for ( int i = 0; i < addresses.length; i++ ) {
+			this.replicas[i] = new Replica(addresses[i]);
+		}
+	}
+	
+	/**
+	 * Sets the time in ms after which an ask is retried with another replica (1000 by default).
+	 */
+	public RecipientGroup setTimeout(long timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+	
+	/**
+	 * Sets for how long a replica which failed to answer is skipped (5 seconds by default).
+	 */
+	public RecipientGroup setDowntime(long downtime, TimeUnit unit) {
+		this.downtime = unit.toNanos(downtime);
+		return this;
+	}
+	
+	public String getName() {
+		return this.name;
+	}
+	
+	public long getTimeout() {
+		return this.timeout;
+	}
+	
+	public int size() {
+		return this.replicas.length;
+	}
+	
+	/**
+	 * Chooses the replica for the next message according to the group's policy. Replicas which
+	 * recently failed are only chosen if all replicas did.
+	 */
+	public synchronized Replica pick() {
+		long now = System.nanoTime();
+		Replica chosen = null;
+		int index = this.next;
+		switch ( this.policy ) {
+			case LEAST_OUTSTANDING:
+				for ( int i = 0; i < this.replicas.length; i++ ) {
+					Replica replica = this.replicas[(this.next + i) % this.replicas.length];
+					if ( up(replica, now) && (chosen == null || replica.outstanding < chosen.outstanding) ) {
+						chosen = replica;
+						index = (this.next + i) % this.replicas.length;
+					}
+				}
+				break;
+			case LATENCY_WEIGHTED:
+				double total = 0;
+				for ( Replica replica : this.replicas ) {
+					if ( up(replica, now) ) {
+						if ( replica.rtt < 0 ) {
+							chosen = replica;
+							break;
+						}
+						total += 1 / replica.rtt;
+					}
+				}
+				if ( chosen == null && total > 0 ) {
+					double target = ThreadLocalRandom.current().nextDouble(total);
+					for ( Replica replica : this.replicas ) {
+						if ( up(replica, now) ) {
+							target -= 1 / replica.rtt;
+							chosen = replica;
+							if ( target < 0 ) {
+								break;
+							}
+						}
+					}
+				}
+				break;
+			default:
+				for ( int i = 0; i < this.replicas.length && chosen == null; i++ ) {
+					Replica replica = this.replicas[(this.next + i) % this.replicas.length];
+					if ( up(replica, now) ) {
+						chosen = replica;
+						index = (this.next + i) % this.replicas.length;
+					}
+				}
+				break;
+		}
+		if ( chosen == null ) {
+			// all replicas are down, try the one which failed first
+			for ( Replica replica : this.replicas ) {
+				if ( chosen == null || replica.downUntil - chosen.downUntil < 0 ) {
+					chosen = replica;
+				}
+			}
+		}
+		this.next = (index + 1) % this.replicas.length;
+		chosen.requests++;
+		return chosen;
+	}
+	
+	protected static boolean up(Replica replica, long now) {
+		return !replica.down || now - replica.downUntil >= 0;
+	}
+	
+	/**
+	 * Notes that an ask to the given replica is waiting for its response.
+	 */
+	public synchronized void asking(Replica replica) {
+		replica.outstanding++;
+	}
+	
+	/**
+	 * Notes that the given replica answered an ask after rtt ns.
+	 */
+	public synchronized void answered(Replica replica, long rtt) {
+		replica.outstanding--;
+		replica.rtt = replica.rtt < 0 ? rtt : (1 - this.smoothing) * replica.rtt + this.smoothing * rtt;
+		replica.down = false;
+	}
+	
+	/**
+	 * Notes that the given replica did not answer an ask, so it is skipped for a while.
+	 */
+	public synchronized void failed(Replica replica) {
+		replica.outstanding--;
+		replica.failures++;
+		replica.down = true;
+		replica.downUntil = System.nanoTime() + this.downtime;
+	}
+	
+	public synchronized Replica[] getReplicas() {
+		return this.replicas.clone();
+	}
+	
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder(this.name).append(" [").append(this.policy).append("]");
+		for ( Replica replica : this.replicas ) {
+			builder.append("\n  ").append(replica);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,89 @@
+package hexameter;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * SendMetrics counts the messages and bytes sent by a DaktylosContext and, for a sample of
+ * messages, the bytes the sending thread allocated while sending them. The allocation numbers
+ * rely on com.sun.management.ThreadMXBean, which is available on HotSpot-based JVMs; where it
+ * is missing, allocation sampling is simply disabled.
+ */
+public class SendMetrics {
+
+	protected static final com.sun.management.ThreadMXBean THREADS = threads();
+	
+	protected AtomicLong messages = new AtomicLong();
+	protected AtomicLong bytes = new AtomicLong();
+	protected AtomicLong sampledMessages = new AtomicLong();
+	protected AtomicLong sampledAllocation = new AtomicLong();
+	protected int sampling;
+	protected long overhead = 0;
+	
+	protected static com.sun.management.ThreadMXBean threads() {
+		try {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			return threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled() ? threads : null;
+		} catch ( ClassCastException | LinkageError e ) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @param sampling measure the allocation of every sampling-th message, 0 to disable
+	 */
+	public SendMetrics(int sampling) {
+		this.sampling = THREADS != null ? sampling : 0;
+		if ( this.sampling > 0 ) {
+			long min = Long.MAX_VALUE;
+			for ( int i = 0; i < 16; i++ ) {
+				long before = this.allocated();
+				min = Math.min(min, this.allocated() - before);
+			}
+			this.overhead = min;
+		}
+	}
+	
+	/**
+	 * Returns true if the allocation of the next message should be measured.
+	 */
+	public boolean sample() {
+		return this.sampling > 0 && this.messages.get() % this.sampling == 0;
+	}
+	
+	public long allocated() {
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	public void sent(int size) {
+		this.messages.incrementAndGet();
+		this.bytes.addAndGet(size);
+	}
+	
+	public void sampled(long allocatedBefore) {
+		this.sampledAllocation.addAndGet(Math.max(0, this.allocated() - allocatedBefore - this.overhead));
+		this.sampledMessages.incrementAndGet();
+	}
+	
+	public long getMessages() {
+		return this.messages.get();
+	}
+	
+	public long getBytes() {
+		return this.bytes.get();
+	}
+	
+	/**
+	 * Returns the average number of bytes allocated per sampled message, or -1 if no message has
+	 * been sampled.
+	 */
+	public double getAllocatedPerMessage() {
+		long sampled = this.sampledMessages.get();
+		return sampled > 0 ? (double) this.sampledAllocation.get() / sampled : -1;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d messages, %d bytes sent, %.1f bytes allocated per message", this.getMessages(), this.getBytes(), this.getAllocatedPerMessage());
+	}
+}
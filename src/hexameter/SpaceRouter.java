@@ -0,0 +1,123 @@
+package hexameter;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+
+/**
+ * SpaceRouter dispatches Hexameter messages to MessageProcessors registered per space name
+ * (exact match) or per space name prefix (e.g. "net.", "hades." or "iason."). Dispatch is backed
+ * by a SpaceTable and thus does not depend on how many spaces a component serves, unlike chains
+ * of space.equals(...) checks.
+ * 
+ * A SpaceRouter can be used in all places where Hexameter expects behavior:
+ * <ul>
+ * <li>as a Space, i.e. as the callback given to HexameterContext.init, in which case messages to
+ *     unregistered spaces are given to the fallback processor set via otherwise(),</li>
+ * <li>as a Sphere, in which case messages to unregistered spaces are passed on to the rest of the
+ *     sphere chain (outgoing messages are always passed on unchanged), or</li>
+ * <li>as a plain MessageProcessor.</li>
+ * </ul>
+ */
+public class SpaceRouter implements MessageProcessor, Space, Sphere {
+
+	protected SpaceTable<MessageProcessor> routes = new SpaceTable<MessageProcessor>();
+	protected MessageProcessor fallback = null;
+	
+	/**
+	 * Registers a processor for all messages targeting exactly the given space.
+	 */
+	public SpaceRouter on(String space, MessageProcessor processor) {
+		this.routes.put(space, processor);
+		return this;
+	}
+	
+	/**
+	 * Registers a processor for all messages targeting a space whose name starts with the given
+	 * prefix. Longer prefixes and exact registrations take precedence.
+	 */
+	public SpaceRouter onPrefix(String prefix, MessageProcessor processor) {
+		this.routes.putPrefix(prefix, processor);
+		return this;
+	}
+	
+	/**
+	 * Sets the processor to be used for messages that match no registered space. If none is set,
+	 * such messages are answered with null (i.e. no response).
+	 */
+	public SpaceRouter otherwise(MessageProcessor processor) {
+		this.fallback = processor;
+		return this;
+	}
+	
+	public SpaceRouter off(String space) {
+		this.routes.remove(space);
+		return this;
+	}
+	
+	public SpaceRouter offPrefix(String prefix) {
+		this.routes.removePrefix(prefix);
+		return this;
+	}
+	
+	/**
+	 * Returns the processor responsible for the given space, or null if no route matches.
+	 */
+	public MessageProcessor route(String space) {
+		return space == null ? null : this.routes.get(space);
+	}
+	
+	@Override
+	public JSONArray process(String type, String author, String space, JSONArray parameter, String recipient) {
+		MessageProcessor processor = this.route(space);
+		if ( processor == null ) {
+			processor = this.fallback;
+		}
+		if ( processor == null ) {
+			return null;
+		}
+		return processor.process(type, author, space, parameter, recipient);
+	}
+	
+	@Override
+	public MessageProcessor install() {
+		return this;
+	}
+	
+	@Override
+	public MessageProcessor build(MessageProcessor continuation, String direction) {
+		if ( direction.equals("in") ) {
+			return (type, author, space, parameter, recipient) -> {
+				MessageProcessor processor = this.route(space);
+				if ( processor == null ) {
+					return continuation.process(type, author, space, parameter, recipient);
+				}
+				return processor.process(type, author, space, parameter, recipient);
+			};
+		} else {
+			return continuation;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) {
+		SpaceRouter router = new SpaceRouter()
+			.on("echo", (type, author, space, parameter, recipient) -> {
+				return parameter;
+			})
+			.onPrefix("net.", (type, author, space, parameter, recipient) -> {
+				JSONObject responseItem = new JSONObject();
+				responseItem.put("networking", space);
+				JSONArray response = new JSONArray();
+				response.add(responseItem);
+				return response;
+			})
+			.otherwise(SpondeiosContext.TrivialSpace.install());
+		JSONObject requestItem = new JSONObject();
+		requestItem.put("a", 42);
+		JSONArray request = new JSONArray();
+		request.add(requestItem);
+		System.out.println(router.process("get", "localhost:789", "echo", request, "localhost:123"));
+		System.out.println(router.process("get", "localhost:789", "net.whatever", request, "localhost:123"));
+		System.out.println(router.process("get", "localhost:789", "test", request, "localhost:123"));
+	}
+}
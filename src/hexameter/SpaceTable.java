@@ -0,0 +1,90 @@
+package hexameter;
+import java.util.HashMap;
+
+
+/**
+ * SpaceTable maps Hexameter space names to arbitrary values, either by exact name or by name
+ * prefix (like "net." or "hades."). Exact names are looked up via a hash map, prefixes via a
+ * character trie, so the cost of a lookup depends on the length of the space name only and not
+ * on the number of registered spaces. When several prefixes match, the longest one wins. Exact
+ * entries always take precedence over prefix entries.
+ */
+public class SpaceTable<T> {
+
+	protected static class Node<T> {
+		protected HashMap<Character, Node<T>> children = new HashMap<Character, Node<T>>();
+		protected T value;
+	}
+	
+	protected HashMap<String, T> exact = new HashMap<String, T>();
+	protected Node<T> prefixes = new Node<T>();
+	protected int prefixCount = 0;
+	
+	public SpaceTable<T> put(String space, T value) {
+		this.exact.put(space, value);
+		return this;
+	}
+	
+	public SpaceTable<T> putPrefix(String prefix, T value) {
+		Node<T> node = this.prefixes;
+		for ( int i = 0; i < prefix.length(); i++ ) {
+			Character c = prefix.charAt(i);
+			Node<T> child = node.children.get(c);
+			if ( child == null ) {
+				child = new Node<T>();
+				node.children.put(c, child);
+			}
+			node = child;
+		}
+		if ( node.value == null ) {
+			this.prefixCount++;
+		}
+		node.value = value;
+		return this;
+	}
+	
+	public T remove(String space) {
+		return this.exact.remove(space);
+	}
+	
+	public T removePrefix(String prefix) {
+		Node<T> node = this.prefixes;
+		for ( int i = 0; node != null && i < prefix.length(); i++ ) {
+			node = node.children.get(prefix.charAt(i));
+		}
+		if ( node == null || node.value == null ) {
+			return null;
+		}
+		T old = node.value;
+		node.value = null;
+		this.prefixCount--;
+		return old;
+	}
+	
+	/**
+	 * Returns the value registered for the given space name, i.e. the exact entry if there is
+	 * one or else the entry of the longest matching prefix, or null if nothing matches.
+	 */
+	public T get(String space) {
+		T value = this.exact.get(space);
+		if ( value != null || this.prefixCount == 0 ) {
+			return value;
+		}
+		Node<T> node = this.prefixes;
+		T best = node.value;
+		for ( int i = 0; i < space.length(); i++ ) {
+			node = node.children.get(space.charAt(i));
+			if ( node == null ) {
+				break;
+			}
+			if ( node.value != null ) {
+				best = node.value;
+			}
+		}
+		return best;
+	}
+	
+	public boolean isEmpty() {
+		return this.exact.isEmpty() && this.prefixCount == 0;
+	}
+}
@@ -23,6 +23,7 @@ public class SpondeiosContext {
 		};
 	};
 	
+	// prints every message on the processing thread, cf. LoggingSphere for a cheaper alternative
 	public static final Sphere VerboseSphere = (continuation, direction) -> {
 		if ( direction.equals("in") ) {
 			return (type, author, space, parameter, recipient) -> {
@@ -44,18 +45,8 @@ public class SpondeiosContext {
 		if ( direction == "in" ) {
 			HashMap<String, HashMap<String, Boolean>> lust = new HashMap<String, HashMap<String, Boolean>>();
 			HashMap<String, HashMap<String, JSONArray>> responses = new HashMap<String, HashMap<String, JSONArray>>();
-			return (type, author, space, parameter, recipient) -> {
-				if ( type.equals("ack") ) {
-					for ( Object parameterItem : parameter ) {
-						JSONObject item = (JSONObject) parameterItem;
-						if ( lust.get(author) != null && lust.get(author).get(space) != null ) {
-							responses.get(author).putIfAbsent(space, new JSONArray());
-							responses.get(author).get(space).add(item);
-						}
-					}
-					return null;
-				}
-				if ( space.equals("net.lust") ) {
+			SpaceRouter router = new SpaceRouter()
+				.on("net.lust", (type, author, space, parameter, recipient) -> {
 					if ( type.equals("put") ) {
 						for ( Object parameterItem : parameter ) {
 							JSONObject item = (JSONObject) parameterItem;
@@ -94,11 +85,23 @@ public class SpondeiosContext {
 							return null;
 						}
 					}
-				} else if ( space.equals("net.life") ) {
+				})
+				.on("net.life", (type, author, space, parameter, recipient) -> {
 					return parameter;
-				} else {
-					return continuation.process(type, author, space, parameter, recipient);
+				})
+				.otherwise(continuation);
+			return (type, author, space, parameter, recipient) -> {
+				if ( type.equals("ack") ) {
+					for ( Object parameterItem : parameter ) {
+						JSONObject item = (JSONObject) parameterItem;
+						if ( lust.get(author) != null && lust.get(author).get(space) != null ) {
+							responses.get(author).putIfAbsent(space, new JSONArray());
+							responses.get(author).get(space).add(item);
+						}
+					}
+					return null;
 				}
+				return router.process(type, author, space, parameter, recipient);
 			};
 		} else { // type == "out"
 			return (type, recipient, space, parameter, author) -> {
@@ -119,17 +122,33 @@ public class SpondeiosContext {
 	public SpondeiosContext init(String name, MessageProcessor message, Space space, Sphere[] spheres) {
 		this.me = name;
 		//this.message = message;
-		this.processor = space.install();
+		this.processor = HexameterEvents.stage(space.install(), "processor", "in");
 		for ( int i = 0; i < spheres.length; i++ ) {
-			this.processor = spheres[i].build(this.processor, "in");
+			this.processor = HexameterEvents.stage(spheres[i].build(this.processor, "in"), name(spheres[i]), "in");
 		}
 		this.actor = message;
 		for ( int i = spheres.length - 1; i >= 0; i-- ) {
-			this.actor = spheres[i].build(this.actor, "out");
+			this.actor = HexameterEvents.stage(spheres[i].build(this.actor, "out"), name(spheres[i]), "out");
 		}
 		return this;
 	}
 	
+	/**
+	 * Returns a readable name for the given sphere, e.g. for HexameterEvents.
+	 */
+	protected static String name(Sphere sphere) {
+		if ( sphere == NetworkingSphere ) {
+			return "NetworkingSphere";
+		} else if ( sphere == VerboseSphere ) {
+			return "VerboseSphere";
+		} else if ( sphere == IdSphere ) {
+			return "IdSphere";
+		}
+		String name = sphere.getClass().getSimpleName();
+		int lambda = name.indexOf("$$Lambda");
+		return lambda >= 0 ? name.substring(0, lambda) + " lambda" : name;
+	}
+	
 	public SpondeiosContext init(String name, MessageProcessor message, Space space) {
 		return this.init(name, message, space, DefaultSpheres);
 	}
@@ -0,0 +1,280 @@
+package hexameter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.json.simple.*;
+
+
+/**
+ * Tracer follows the messages caused by one event (e.g. a HADES tick) across Hexameter
+ * components. A trace is started via root(), which (for a sampled share of calls) makes a trace
+ * context current on the calling thread. While a trace context is current, every message sent
+ * via tell() or ask() carries it in an additional "trace" field of its envelope, and the
+ * receiving component makes it current while processing the message, so that messages sent from
+ * there carry it on in turn. Components not knowing about traces simply ignore the field.
+ *
+ * Every step (sending, processing, asking) is recorded as a span with its start and end time
+ * into a ring buffer holding the most recent spans of this JVM, which can be written to a file
+ * via export() and combined with the files of other components by trace id. Messages outside a
+ * sampled trace carry no trace field and record nothing. Messages sent via pre-compiled
+ * MessageTemplates are never traced.
+ */
+public class Tracer {
+	
+	/**
+	 * Identifies a span within a trace. Only sampled contexts exist; the flag is carried on the
+	 * wire for compatibility with other tracing systems.
+	 */
+	public static class Context {
+		protected long trace;
+		protected long span;
+		protected boolean sampled;
+		
+		public Context(long trace, long span, boolean sampled) {
+			this.trace = trace;
+			this.span = span;
+			this.sampled = sampled;
+		}
+		
+		public long getTrace() {
+			return this.trace;
+		}
+		
+		public long getSpan() {
+			return this.span;
+		}
+		
+		public boolean isSampled() {
+			return this.sampled;
+		}
+		
+		@SuppressWarnings("unchecked")
+		public JSONObject toJSON() {
+			JSONObject json = new JSONObject();
+			json.put("trace", Long.toHexString(this.trace));
+			json.put("span", Long.toHexString(this.span));
+			json.put("sampled", this.sampled);
+			return json;
+		}
+		
+		/**
+		 * Reads a context from the trace field of a message envelope, returns null if there is
+		 * none or it is not sampled.
+		 */
+		public static Context parse(Object field) {
+			if ( !(field instanceof JSONObject) ) {
+				return null;
+			}
+			JSONObject json = (JSONObject) field;
+			try {
+				if ( Boolean.FALSE.equals(json.get("sampled")) ) {
+					return null;
+				}
+				return new Context(Long.parseUnsignedLong((String) json.get("trace"), 16), Long.parseUnsignedLong((String) json.get("span"), 16), true);
+			} catch ( ClassCastException | NullPointerException | NumberFormatException e ) {
+				return null;
+			}
+		}
+	}
+	
+	/**
+	 * A step within a trace. While a span is open, its context is current on the thread that
+	 * opened it; closing the span records it and restores the previous context.
+	 */
+	public static class Span implements AutoCloseable {
+		public static final Span NONE = new Span();
+		
+		protected Context context;
+		protected Context previous;
+		protected long parent;
+		protected String name;
+		protected String type;
+		protected String space;
+		protected String node;
+		protected String peer;
+		protected long start;
+		protected boolean open = false;
+		
+		protected Span() {
+		}
+		
+		protected Span(Context context, long parent, String name, String type, String space, String node, String peer) {
+			this.context = context;
+			this.parent = parent;
+			this.name = name;
+			this.type = type;
+			this.space = space;
+			this.node = node;
+			this.peer = peer;
+			this.previous = current.get();
+			this.open = true;
+			current.set(context);
+			this.start = System.nanoTime();
+		}
+		
+		/**
+		 * Returns the context of this span, null if it is not traced.
+		 */
+		public Context getContext() {
+			return this.context;
+		}
+		
+		@Override
+		public void close() {
+			if ( !this.open ) {
+				return;
+			}
+			if ( this.context != null ) {
+				record(this, System.nanoTime());
+			}
+			current.set(this.previous);
+			this.open = false;
+		}
+	}
+	
+	protected static final ThreadLocal<Context> current = new ThreadLocal<Context>();
+	// set once any trace has been started or received, so that untraced programs skip the lookup
+	protected static volatile boolean active = false;
+	protected static volatile int sampling = 1;
+	
+	protected static final long originNanos = System.nanoTime();
+	protected static final long originMicros = System.currentTimeMillis() * 1000;
+	
+	protected static long[] traces;
+	protected static long[] spans;
+	protected static long[] parents;
+	protected static long[] starts;
+	protected static long[] ends;
+	protected static String[] names;
+	protected static String[] types;
+	protected static String[] spaces;
+	protected static String[] nodes;
+	protected static String[] peers;
+	protected static long recorded = 0;
+	
+	static {
+		setCapacity(65536);
+	}
+	
+	/**
+	 * Sets how many of the most recent spans are kept; discards all spans recorded so far.
+	 */
+	public static synchronized void setCapacity(int capacity) {
+		traces = new long[capacity];
+		spans = new long[capacity];
+		parents = new long[capacity];
+		starts = new long[capacity];
+		ends = new long[capacity];
+		names = new String[capacity];
+		types = new String[capacity];
+		spaces = new String[capacity];
+		nodes = new String[capacity];
+		peers = new String[capacity];
+		recorded = 0;
+	}
+	
+	/**
+	 * Lets root() start a trace for every n-th call on average only; 0 disables tracing.
+	 */
+	public static void setSampling(int n) {
+		sampling = n;
+	}
+	
+	/**
+	 * Returns the trace context current on this thread, null if there is none.
+	 */
+	public static Context current() {
+		return active ? current.get() : null;
+	}
+	
+	/**
+	 * Starts a new trace (if sampled) with a root span of the given name. Use it like
+	 *   try ( Tracer.Span span = Tracer.root("period " + period) ) { ... }
+	 */
+	public static Span root(String name) {
+		int n = sampling;
+		if ( n <= 0 || (n > 1 && ThreadLocalRandom.current().nextInt(n) != 0) ) {
+			return Span.NONE;
+		}
+		active = true;
+		long id = ThreadLocalRandom.current().nextLong();
+		return new Span(new Context(id, id, true), 0, name, null, null, null, null);
+	}
+	
+	/**
+	 * Opens a span within the current trace, if any.
+	 * 
+	 * @param name what happens in the span, e.g. "send"
+	 * @param type type of the message concerned
+	 * @param space space of the message concerned
+	 * @param node address of the component the span is recorded by
+	 * @param peer address of the other component concerned
+	 */
+	public static Span child(String name, String type, String space, String node, String peer) {
+		Context parent = current();
+		if ( parent == null ) {
+			return Span.NONE;
+		}
+		return new Span(new Context(parent.trace, ThreadLocalRandom.current().nextLong(), true), parent.span, name, type, space, node, peer);
+	}
+	
+	/**
+	 * Opens a span continuing the trace context received from another component. If there is
+	 * none, the returned span just hides the current trace context (e.g. of an ask waiting for
+	 * its response) until it is closed.
+	 */
+	public static Span resume(Context remote, String name, String type, String space, String node, String peer) {
+		if ( remote == null ) {
+			return current() == null ? Span.NONE : new Span(null, 0, null, null, null, null, null);
+		}
+		active = true;
+		return new Span(new Context(remote.trace, ThreadLocalRandom.current().nextLong(), true), remote.span, name, type, space, node, peer);
+	}
+	
+	protected static synchronized void record(Span span, long end) {
+		int slot = (int) (recorded % traces.length);
+		traces[slot] = span.context.trace;
+		spans[slot] = span.context.span;
+		parents[slot] = span.parent;
+		starts[slot] = span.start;
+		ends[slot] = end;
+		names[slot] = span.name;
+		types[slot] = span.type;
+		spaces[slot] = span.space;
+		nodes[slot] = span.node;
+		peers[slot] = span.peer;
+		recorded++;
+	}
+	
+	public static synchronized long getRecorded() {
+		return recorded;
+	}
+	
+	/**
+	 * Writes the spans currently held, oldest first, to the given file as one JSON object per
+	 * line with ids in hex and times in microseconds since the epoch.
+	 */
+	@SuppressWarnings("unchecked")
+	public static synchronized void export(String path) throws IOException {
+		try ( PrintWriter out = new PrintWriter(new FileWriter(path)) ) {
+			long first = Math.max(0, recorded - traces.length);
+			for ( long i = first; i < recorded; i++ ) {
+				int slot = (int) (i % traces.length);
+				JSONObject span = new JSONObject();
+				span.put("trace", Long.toHexString(traces[slot]));
+				span.put("span", Long.toHexString(spans[slot]));
+				span.put("parent", parents[slot] == 0 ? null : Long.toHexString(parents[slot]));
+				span.put("name", names[slot]);
+				span.put("type", types[slot]);
+				span.put("space", spaces[slot]);
+				span.put("node", nodes[slot]);
+				span.put("peer", peers[slot]);
+				span.put("start", originMicros + (starts[slot] - originNanos) / 1000);
+				span.put("duration", (ends[slot] - starts[slot]) / 1000);
+				out.println(span.toJSONString());
+			}
+		}
+	}
+}